@@ -0,0 +1,114 @@
+package com.provar.app;
+
+import java.util.Random;
+
+import org.biojava.bio.structure.Atom;
+import org.biojava.bio.structure.AtomImpl;
+import org.biojava.bio.structure.Calc;
+import org.biojava.bio.structure.StructureException;
+
+// Compares the distance test the PocketFinder used to make, copying each probe into a BioJava atom and calling
+// Calc.getDistance, with the DistanceKernel squared distance test.  Every probe of a 50,000 probe conformer is tested
+// against each atom so the cost of the test itself is measured rather than the search around it.  The scalar and
+// vector kernels are then compared scanning the probes in blocks, as they are scanned from the grid cells.
+// Run with: java -cp build com.provar.app.DistanceKernelBenchmark [atoms] [probes], adding
+// --add-modules jdk.incubator.vector and the vector kernel classes to include the vector kernel.
+public class DistanceKernelBenchmark {
+
+	private static final double RADIUS = 3.75;
+	private static final double BOX = 60.0;
+	private static final int REPEATS = 5;
+	private static final int BLOCK = 32;
+	
+	public static void main( String[] args ) throws StructureException{
+		
+		int noOfAtoms = args.length > 0 ? Integer.parseInt( args[0] ) : 1000;
+		int noOfProbes = args.length > 1 ? Integer.parseInt( args[1] ) : 50000;
+		
+		Random random = new Random( 42 );
+		
+		double[][] atoms = randomCoords( random, noOfAtoms );
+		double[][] probes = randomCoords( random, noOfProbes );
+		
+		System.out.println( noOfAtoms + " atoms, " + noOfProbes + " probes, radius " + RADIUS );
+		
+		long best = Long.MAX_VALUE;
+		int within = 0;
+		
+		// BioJava distance, two atoms are reused as PocketLining did for each search space
+		for( int repeat = 0; repeat <= REPEATS; repeat++ ){
+			long start = System.nanoTime();
+			within = 0;
+			Atom pocketAtom = new AtomImpl();
+			Atom proteinAtom = new AtomImpl();
+			for( int i = 0; i < noOfAtoms; i++ ){
+				for( int p = 0; p < noOfProbes; p++ ){
+					pocketAtom.setCoords( new double[]{ probes[0][p], probes[1][p], probes[2][p] } );
+					proteinAtom.setCoords( new double[]{ atoms[0][i], atoms[1][i], atoms[2][i] } );
+					if( Calc.getDistance( pocketAtom, proteinAtom ) < RADIUS ){
+						within++;
+					}
+				}
+			}
+			best = report( repeat, start, best );
+		}
+		System.out.println( "Calc.getDistance\t" + ( best / 1000000.0 ) + " ms\t" + within + " pairs within radius" );
+		
+		// Squared distance kernel, one probe at a time so every pair is tested
+		DistanceKernel kernel = new DistanceKernel();
+		double radiusSq = RADIUS * RADIUS;
+		best = Long.MAX_VALUE;
+		
+		for( int repeat = 0; repeat <= REPEATS; repeat++ ){
+			long start = System.nanoTime();
+			within = 0;
+			for( int i = 0; i < noOfAtoms; i++ ){
+				for( int p = 0; p < noOfProbes; p++ ){
+					if( kernel.anyWithin( probes[0], probes[1], probes[2], p, p + 1, atoms[0][i], atoms[1][i], atoms[2][i], radiusSq ) ){
+						within++;
+					}
+				}
+			}
+			best = report( repeat, start, best );
+		}
+		System.out.println( "DistanceKernel\t\t" + ( best / 1000000.0 ) + " ms\t" + within + " pairs within radius" );
+		
+		// Scalar against vector kernel, testing blocks of probes
+		String[] kernels = { DistanceKernelFactory.SCALAR, DistanceKernelFactory.VECTOR };
+		
+		for( String name : kernels ){
+			kernel = DistanceKernelFactory.CreateDistanceKernel( name );
+			best = Long.MAX_VALUE;
+			
+			for( int repeat = 0; repeat <= REPEATS; repeat++ ){
+				long start = System.nanoTime();
+				within = 0;
+				for( int i = 0; i < noOfAtoms; i++ ){
+					for( int p = 0; p < noOfProbes; p += BLOCK ){
+						if( kernel.anyWithin( probes[0], probes[1], probes[2], p, Math.min( p + BLOCK, noOfProbes ), atoms[0][i], atoms[1][i], atoms[2][i], radiusSq ) ){
+							within++;
+						}
+					}
+				}
+				best = report( repeat, start, best );
+			}
+			System.out.println( kernel.getName() + " blocks of " + BLOCK + "\t" + ( best / 1000000.0 ) + " ms\t" + within + " blocks within radius" );
+		}
+	}
+	
+	// First repeat warms up the JIT, keep the best of the rest
+	private static long report( int repeat, long start, long best ){
+		long time = System.nanoTime() - start;
+		return repeat > 0 ? Math.min( best, time ) : best;
+	}
+	
+	private static double[][] randomCoords( Random random, int count ){
+		double[][] coords = new double[3][count];
+		for( int i = 0; i < count; i++ ){
+			for( int axis = 0; axis < 3; axis++ ){
+				coords[axis][i] = random.nextDouble() * BOX;
+			}
+		}
+		return coords;
+	}
+}
@@ -0,0 +1,153 @@
+package com.provar.app;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Compares the neighbour search strategies on synthetic structures.  Atoms fill a protein sized box and the probes
+// are either spread evenly over the box (sparse, like PASS) or packed into one deep cleft (dense, like a Ligsite
+// grid).  The grid and k-d tree are also timed searching outwards from the probes over an index of the atoms, as
+// the PocketFinder does for very sparse probe sets.
+// Run with: java -cp build com.provar.app.NeighbourSearchBenchmark [atoms] [probes]
+public class NeighbourSearchBenchmark {
+
+	private static final double RADIUS = 3.75;
+	private static final double BOX = 60.0;
+	private static final int REPEATS = 10;
+	
+	public static void main( String[] args ){
+		
+		int noOfAtoms = args.length > 0 ? Integer.parseInt( args[0] ) : 10000;
+		int noOfProbes = args.length > 1 ? Integer.parseInt( args[1] ) : 50000;
+		
+		Random random = new Random( 42 );
+		
+		double[][] atoms = new double[3][noOfAtoms];
+		for( int i = 0; i < noOfAtoms; i++ ){
+			for( int axis = 0; axis < 3; axis++ ){
+				atoms[axis][i] = random.nextDouble() * BOX;
+			}
+		}
+		
+		// Sparse probes, scattered evenly through and just around the box
+		double[][] sparse = new double[3][noOfProbes];
+		for( int i = 0; i < noOfProbes; i++ ){
+			for( int axis = 0; axis < 3; axis++ ){
+				sparse[axis][i] = random.nextDouble() * ( BOX + 10.0 ) - 5.0;
+			}
+		}
+		
+		// Dense probes, clustered tightly in a single cleft
+		double[][] dense = new double[3][noOfProbes];
+		for( int i = 0; i < noOfProbes; i++ ){
+			dense[0][i] = 20.0 + random.nextGaussian() * 2.0;
+			dense[1][i] = 30.0 + random.nextGaussian() * 2.0;
+			dense[2][i] = 40.0 + random.nextGaussian() * 4.0;
+		}
+		
+		String[] strategies = { NeighbourSearchFactory.GRID, NeighbourSearchFactory.KDTREE, NeighbourSearchFactory.SCAN };
+		
+		System.out.println( noOfAtoms + " atoms, " + noOfProbes + " probes, radius " + RADIUS );
+		
+		for( String strategy : strategies ){
+			run( strategy, "sparse", atoms, sparse );
+			run( strategy, "dense", atoms, dense );
+			if( !strategy.equals( NeighbourSearchFactory.SCAN ) ){
+				runFromProbes( strategy, "sparse", atoms, sparse );
+				runFromProbes( strategy, "dense", atoms, dense );
+			}
+		}
+	}
+	
+	private static void run( String strategy, String probeSet, double[][] atoms, double[][] probes ){
+		
+		NeighbourSearch search = NeighbourSearchFactory.CreateNeighbourSearch( strategy );
+		
+		int noOfAtoms = atoms[0].length;
+		int noOfProbes = probes[0].length;
+		
+		int lining = 0;
+		long best = Long.MAX_VALUE;
+		
+		// First repeat warms up the JIT, the best of the rest is reported
+		for( int repeat = 0; repeat <= REPEATS; repeat++ ){
+			
+			long start = System.nanoTime();
+			
+			lining = 0;
+			if( search != null ){
+				search.build( probes[0], probes[1], probes[2], noOfProbes, RADIUS );
+			}
+			
+			for( int i = 0; i < noOfAtoms; i++ ){
+				boolean isPocketLining;
+				if( search != null ){
+					isPocketLining = search.anyWithin( atoms[0][i], atoms[1][i], atoms[2][i], RADIUS );
+				}else{
+					isPocketLining = scan( atoms[0][i], atoms[1][i], atoms[2][i], probes );
+				}
+				if( isPocketLining ){
+					lining++;
+				}
+			}
+			
+			long time = System.nanoTime() - start;
+			if( repeat > 0 ){
+				best = Math.min( best, time );
+			}
+		}
+		
+		System.out.println( strategy + "\t" + probeSet + "\t" + ( best / 1000000.0 ) + " ms\t" + lining + " pocket lining atoms" );
+	}
+	
+	private static void runFromProbes( String strategy, String probeSet, double[][] atoms, double[][] probes ){
+		
+		NeighbourSearch search = NeighbourSearchFactory.CreateNeighbourSearch( strategy );
+		
+		int noOfAtoms = atoms[0].length;
+		int noOfProbes = probes[0].length;
+		double[] nearestSq = new double[noOfAtoms];
+		
+		int lining = 0;
+		long best = Long.MAX_VALUE;
+		
+		for( int repeat = 0; repeat <= REPEATS; repeat++ ){
+			
+			long start = System.nanoTime();
+			
+			Arrays.fill( nearestSq, RADIUS * RADIUS );
+			search.build( atoms[0], atoms[1], atoms[2], noOfAtoms, RADIUS );
+			
+			for( int p = 0; p < noOfProbes; p++ ){
+				search.updateNearest( probes[0][p], probes[1][p], probes[2][p], RADIUS, nearestSq );
+			}
+			
+			lining = 0;
+			for( int i = 0; i < noOfAtoms; i++ ){
+				if( nearestSq[i] < RADIUS * RADIUS ){
+					lining++;
+				}
+			}
+			
+			long time = System.nanoTime() - start;
+			if( repeat > 0 ){
+				best = Math.min( best, time );
+			}
+		}
+		
+		System.out.println( strategy + "-probes\t" + probeSet + "\t" + ( best / 1000000.0 ) + " ms\t" + lining + " pocket lining atoms" );
+	}
+	
+	// Full scan of every probe, as done by the PocketFinder without a neighbour search
+	private static boolean scan( double x, double y, double z, double[][] probes ){
+		double radiusSq = RADIUS * RADIUS;
+		for( int p = 0; p < probes[0].length; p++ ){
+			double dx = probes[0][p] - x;
+			double dy = probes[1][p] - y;
+			double dz = probes[2][p] - z;
+			if( dx*dx + dy*dy + dz*dz < radiusSq ){
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,135 @@
+package com.provar.app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+// Compares the PDB readers.  The readLine reader is the usual BufferedReader approach, building a String for each
+// line and parsing the columns with substring and Double.parseDouble, and is timed as the baseline for the native
+// reader reading into a buffer and the native reader parsing a memory mapped view of the file.  Every reader fills
+// a PDBStructure so the times include the same structure building.  Pass PDB files to
+// read or let the benchmark write a synthetic structure.  The BioJava reader is timed if BioJava is on the class path.
+// Run with: java -cp build com.provar.app.PDBReaderBenchmark [pdb files]
+public class PDBReaderBenchmark {
+
+	private static final int REPEATS = 50;
+	private static final int SYNTHETIC_ATOMS = 20000;
+
+	public static void main( String[] args ) throws Exception{
+
+		String[] files = args;
+		if( files.length == 0 ){
+			files = new String[]{ writeSyntheticStructure().getPath() };
+		}
+
+		System.out.println( files.length + " files, best of " + REPEATS + " passes" );
+
+		run( "readLine", files, new LineReader() );
+		run( PDBReaderFactory.NATIVE, files, PDBReaderFactory.CreatePDBReader( PDBReaderFactory.NATIVE ) );
+		run( PDBReaderFactory.MAPPED, files, PDBReaderFactory.CreatePDBReader( PDBReaderFactory.MAPPED ) );
+
+		try{
+			run( PDBReaderFactory.BIOJAVA, files, PDBReaderFactory.CreatePDBReader( PDBReaderFactory.BIOJAVA ) );
+		}catch( NoClassDefFoundError ex ){
+			System.out.println( PDBReaderFactory.BIOJAVA + "\tnot on the class path" );
+		}
+	}
+
+	private static void run( String name, String[] files, PDBReader reader ) throws IOException{
+
+		long best = Long.MAX_VALUE;
+		long bytes = 0;
+		int atoms = 0;
+
+		// First pass warms up the JIT and the file cache, the best of the rest is reported
+		for( int repeat = 0; repeat <= REPEATS; repeat++ ){
+
+			long startBytes = allocatedBytes();
+			long start = System.nanoTime();
+
+			atoms = 0;
+			for( String file : files ){
+				atoms += new PDBStructure( file, reader ).getAtomCount();
+			}
+
+			long time = System.nanoTime() - start;
+			if( ( repeat > 0 ) && ( time < best ) ){
+				best = time;
+				bytes = allocatedBytes() - startBytes;
+			}
+		}
+
+		System.out.println( name + "\t" + ( best / 1000000.0 / files.length ) + " ms/file\t" +
+				( bytes < 0 ? "n/a" : String.valueOf( bytes / files.length ) ) + " bytes/file\t" + atoms + " atoms" );
+	}
+
+	// The BufferedReader approach, a String for each line with the columns cut out with substring
+	private static class LineReader implements PDBReader {
+
+		@Override
+		public void readAtoms( File pdbFile, AtomRecordHandler structure ) throws IOException{
+
+			BufferedReader inStream = new BufferedReader( new FileReader( pdbFile ) );
+			try{
+				String line;
+				while( ( line = inStream.readLine() ) != null ){
+					if( line.startsWith("ENDMDL") ){
+						break;
+					}
+					if( !line.startsWith("ATOM  ") && !line.startsWith("HETATM") ){
+						continue;
+					}
+					structure.addAtomRecord(
+							Double.parseDouble( line.substring( 30, 38 ).trim() ),
+							Double.parseDouble( line.substring( 38, 46 ).trim() ),
+							Double.parseDouble( line.substring( 46, 54 ).trim() ),
+							Integer.parseInt( line.substring( 6, 11 ).trim() ),
+							line.substring( 12, 16 ).trim(),
+							line.length() >= 78 ? line.substring( 76, 78 ).trim() : "",
+							line.substring( 17, 20 ).trim(),
+							Integer.parseInt( line.substring( 22, 26 ).trim() ),
+							line.substring( 21, 22 ) );
+				}
+			}finally{
+				inStream.close();
+			}
+		}
+	}
+
+	// Write a structure of glycine-like residues with random coordinates to a temporary file
+	private static File writeSyntheticStructure() throws IOException{
+
+		File file = File.createTempFile( "provarBench", ".pdb" );
+		file.deleteOnExit();
+
+		String[] names = { " N  ", " CA ", " C  ", " O  " };
+		Random random = new Random( 42 );
+
+		PrintWriter outStream = new PrintWriter( file );
+		try{
+			outStream.println("HEADER    SYNTHETIC STRUCTURE FOR PDBReaderBenchmark");
+			for( int i = 0; i < SYNTHETIC_ATOMS; i++ ){
+				outStream.println( String.format( "ATOM  %5d %4s GLY A%4d    %8.3f%8.3f%8.3f  1.00  0.00           %c",
+						i + 1, names[i % 4], i / 4 + 1, random.nextDouble() * 100.0 - 50.0,
+						random.nextDouble() * 100.0 - 50.0, random.nextDouble() * 100.0 - 50.0, names[i % 4].charAt(1) ) );
+			}
+			outStream.println("END");
+		}finally{
+			outStream.close();
+		}
+		return file;
+	}
+
+	// Bytes allocated by this thread so far, -1 if the JVM cannot report it
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if( threads instanceof com.sun.management.ThreadMXBean ){
+			return ( (com.sun.management.ThreadMXBean)threads ).getThreadAllocatedBytes( Thread.currentThread().getId() );
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,113 @@
+package com.provar.app;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+// Times the PocketFinder over a run of synthetic conformers and reports the memory allocated per conformer, which
+// should stay close to zero once the working buffers have been sized by the first conformer.  The allocation count
+// needs a JVM that supports com.sun.management.ThreadMXBean.
+// Run with: java -cp build com.provar.app.PocketFinderBenchmark [atoms] [probes] [conformers]
+public class PocketFinderBenchmark {
+
+	private static final double RADIUS = 3.75;
+	private static final double BOX = 60.0;
+	private static final int ATOMS_PER_RESIDUE = 8;
+
+	public static void main( String[] args ) throws Exception{
+
+		int noOfAtoms = args.length > 0 ? Integer.parseInt( args[0] ) : 10000;
+		int noOfProbes = args.length > 1 ? Integer.parseInt( args[1] ) : 5000;
+		int noOfConformers = args.length > 2 ? Integer.parseInt( args[2] ) : 50;
+
+		Random random = new Random( 42 );
+
+		// Conformers share the reference topology and differ only in their coordinates
+		SyntheticStructure[] conformers = new SyntheticStructure[noOfConformers];
+		SyntheticStructure[] pockets = new SyntheticStructure[noOfConformers];
+		for( int c = 0; c < noOfConformers; c++ ){
+			conformers[c] = new SyntheticStructure( random, noOfAtoms, 0.0 );
+			pockets[c] = new SyntheticStructure( random, noOfProbes, 5.0 );
+		}
+
+		System.out.println( noOfAtoms + " atoms, " + noOfProbes + " probes, " + noOfConformers + " conformers, radius " + RADIUS );
+
+		String[] strategies = { NeighbourSearchFactory.GRID, NeighbourSearchFactory.KDTREE, NeighbourSearchFactory.SCAN };
+
+		for( String strategy : strategies ){
+			ProvarOptions options = new ProvarOptions();
+			options.setNeighbourSearch( strategy );
+			run( options, conformers, pockets );
+		}
+	}
+
+	private static void run( ProvarOptions options, SyntheticStructure[] conformers, SyntheticStructure[] pockets ) throws Exception{
+
+		PocketFinder finder = new PocketFinder( options );
+
+		// First conformer sizes the buffers and warms up the JIT, it is left out of the figures
+		finder.FindPockets( conformers[0], pockets[0], RADIUS, false );
+
+		long startBytes = allocatedBytes();
+		long start = System.nanoTime();
+
+		for( int c = 1; c < conformers.length; c++ ){
+			finder.FindPockets( conformers[c], pockets[c], RADIUS, false );
+		}
+
+		long time = System.nanoTime() - start;
+		long bytes = allocatedBytes() - startBytes;
+		int measured = conformers.length - 1;
+
+		System.out.println( options.getNeighbourSearch() + "\t" + ( time / 1000000.0 / measured ) + " ms/conformer\t" +
+				( bytes < 0 ? "n/a" : String.valueOf( bytes / measured ) ) + " bytes/conformer" );
+	}
+
+	// Bytes allocated by this thread so far, -1 if the JVM cannot report it
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if( threads instanceof com.sun.management.ThreadMXBean ){
+			return ( (com.sun.management.ThreadMXBean)threads ).getThreadAllocatedBytes( Thread.currentThread().getId() );
+		}
+		return -1;
+	}
+
+	// Atoms or probes scattered through a protein sized box, only the arrays used by the PocketFinder are provided
+	private static class SyntheticStructure implements ProteinStructure {
+
+		private final double[] x, y, z;
+		private final int[] serial;
+		private final int[] residue;
+
+		SyntheticStructure( Random random, int count, double margin ){
+			x = new double[count];
+			y = new double[count];
+			z = new double[count];
+			serial = new int[count];
+			residue = new int[count];
+			for( int i = 0; i < count; i++ ){
+				x[i] = random.nextDouble() * ( BOX + 2 * margin ) - margin;
+				y[i] = random.nextDouble() * ( BOX + 2 * margin ) - margin;
+				z[i] = random.nextDouble() * ( BOX + 2 * margin ) - margin;
+				serial[i] = i + 1;
+				residue[i] = i / ATOMS_PER_RESIDUE + 1;
+			}
+		}
+
+		public int getAtomCount(){ return x.length; }
+		public double[] getAtomX(){ return x; }
+		public double[] getAtomY(){ return y; }
+		public double[] getAtomZ(){ return z; }
+		public int[] getAtomSerNoArray(){ return serial; }
+		public int[] getResidueSeqNoArray(){ return residue; }
+		public int getMaxResidue(){ return x.length == 0 ? 0 : residue[x.length - 1]; }
+
+		public List<double[]> getAtomXYZ(){ throw new UnsupportedOperationException(); }
+		public List<Integer> getAtomSerNos(){ throw new UnsupportedOperationException(); }
+		public List<String> getAtomNames(){ throw new UnsupportedOperationException(); }
+		public List<Integer> getResidueSeqNo(){ throw new UnsupportedOperationException(); }
+		public List<String> getResidueName(){ throw new UnsupportedOperationException(); }
+		public List<String> getChainID(){ throw new UnsupportedOperationException(); }
+		public List<String> getAtomElement(){ throw new UnsupportedOperationException(); }
+	}
+}
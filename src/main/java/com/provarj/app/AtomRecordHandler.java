@@ -0,0 +1,28 @@
+package com.provar.app;
+
+// Interface for anything that takes the atom records read by a PDBReader, either a full PDBStructure or a
+// ConformerStructure that only keeps the coordinates
+public interface AtomRecordHandler {
+
+	/**
+	 * 
+	 * @return ProteinStructure columns the handler keeps, readers may pass 0 or null for the others.  The residue name
+	 * is always passed so that waters can be skipped.
+	 */
+	public int getColumns();
+
+	/**
+	 * 
+	 * @param x X coordinate of the atom
+	 * @param y Y coordinate of the atom
+	 * @param z Z coordinate of the atom
+	 * @param serialNo atom serial number
+	 * @param name atom name
+	 * @param element BioJava element type of the atom
+	 * @param resName name of the residue the atom belongs to
+	 * @param resSeqNo sequence number of the residue the atom belongs to
+	 * @param chain ID of the chain the atom belongs to
+	 */
+	public void addAtomRecord( double x, double y, double z, int serialNo, String name, String element, 
+			String resName, int resSeqNo, String chain );
+}
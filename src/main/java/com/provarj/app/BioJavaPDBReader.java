@@ -0,0 +1,119 @@
+package com.provar.app;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.biojava.bio.structure.*;
+import org.biojava.bio.structure.io.*;
+import org.biojava.bio.structure.AtomIterator;
+
+// Reads the atom records of a PDB file through the BioJava PDBFileReader.  This builds the full BioJava structure
+// (chains, groups and atoms) for each file, so is slower than the NativePDBReader, but copes with anything BioJava can.
+public class BioJavaPDBReader implements PDBReader {
+
+	/**
+	 *
+	 * @param pdbFile PDB file to read
+	 * @param structure structure to pass each atom record read from the first model to
+	 * @throws IOException
+	 */
+	@Override
+	public void readAtoms( File pdbFile, AtomRecordHandler structure ) throws IOException{
+
+		// BioJava structure to hold PDB structure data
+		// Attempt to lead structure data from file reference
+		Structure pdbStruct;
+		try{
+			pdbStruct = loadStructure( pdbFile );
+		}catch(IOException ex){
+			throw ex;
+		}
+
+		// Use a BioJava iterator to cycle through all the atom groups in the extracted data
+		AtomIterator atomIt = new AtomIterator( pdbStruct );
+
+		while( atomIt.hasNext() ){
+
+			Atom atom = atomIt.next();
+			Group group = atom.getGroup();
+			double[] xyz = atom.getCoords();
+
+			structure.addAtomRecord( xyz[0], xyz[1], xyz[2], atom.getPDBserial(), atom.getName(),
+					atom.getElement().getElementType().name(), group.getPDBName(), group.getResidueNumber().getSeqNum(),
+					group.getChainId() );
+		}
+	}
+
+	// Method to read the actual PDB file data.
+	private Structure loadStructure( File pdbFileName ) throws IOException{
+
+		Structure structureData = null;
+
+		try{
+			// Create a PDBreader to read in the atom records
+			PDBFileReader pdbReader = new PDBFileReader();
+
+			// Read in the structural data
+			structureData = pdbReader.getStructure( pdbFileName );
+
+			}catch( IOException ex ){
+				// Throws exception on bad header which conformers
+				// this can be ignored though execution will continue. The stack trace gets called within
+				// the pdb_HEADER_Handler method inside BIoJava PDBFileParser.
+				throw ex;
+			}
+
+		return structureData;
+	}
+
+	// This method is supposed to be a work around for the Exception that is thrown within the BioJava PDBReader function.
+	// It loads a structure, copies the content to a temporary file, then delete the header and passes back the temporary file to be loaded
+	// by the PDBReader, however the temporary file never gets deleted or cannot be deleted because the PDBReader function keeps it open,
+	// and when a file is open it cannot be closed or deleted outside of the function that opened it.  Have kept this function in just in case
+	// someone in the future knows how to fix it.  The NativePDBReader does not read headers so does not have this problem.
+
+	private File trimHeader(String pdbFileName) throws IOException{
+
+		File tempPDB = null;
+		PrintWriter outStream = null;
+		BufferedReader inStream = null;
+
+		try{
+			// Create a temporary PDB file
+			tempPDB = File.createTempFile("tempPDBfile", ".pdb");
+
+			// Open the file ready for writing
+			outStream = new PrintWriter( new BufferedWriter( new FileWriter( tempPDB ) ) );
+
+			// Open the input PDB file
+			inStream = new BufferedReader( new FileReader( pdbFileName ) );
+
+			// Read the contents, but skips header data, and write it to the output buffer
+			String line;
+			line = inStream.readLine();
+
+			while( line != null ){
+				if(!line.contains("HEADER")){
+					outStream.println(line + "\n");
+				}
+				line = inStream.readLine();
+			}
+
+			// Copy output buffer to temporary file
+			outStream.flush();
+
+		}catch( IOException ex ){
+			throw ex;
+		}finally{
+			inStream.close();
+			outStream.close();
+		}
+
+		return tempPDB;
+	}
+}
@@ -0,0 +1,461 @@
+package com.provar.app;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// Binary cache of the conformer coordinates of another conformer source, so repeated runs over the same ensemble do not
+// parse the text files again.  The first time the conformers are read their coordinates are written to the cache in
+// order as they are read, conformers read ahead by other threads are held until those before them are written.  Later
+// runs read the block of doubles for each conformer into its coordinate arrays, with positional reads from one channel
+// kept open until the source is closed, so conformers can be read by several threads at once.  The cache records the
+// path, length and modification time of every source file, including the reference structure, and the conformers it
+// holds, and is ignored and written again if any of them have changed.  A CRC of the whole cache is checked when it is
+// opened, and it is written to a temporary file that only replaces the cache once complete, so an interrupted run
+// cannot leave a damaged cache behind.
+//
+// Layout, big endian: magic, version, header length, header, coordinate blocks, matches table, CRC.  The header holds
+// the source files, the conformer sequence numbers and the serial numbers of the reference atoms, which are stored
+// once for all the conformers.  Each coordinate block holds the X, Y then Z coordinates of one conformer, and the
+// matches table whether each conformer matched the reference.  Conformers that did not match have an empty block and
+// are always read from the source.
+public class CachedConformerSource implements ConformerSource {
+
+	private static final int MAGIC = 0x50564A43;		// "PVJC"
+	private static final int VERSION = 1;
+	private static final int PREAMBLE_LENGTH = 12;		// Magic, version and header length
+	private static final int CRC_LENGTH = 8;
+
+	private final ConformerSource source;				// Source the conformers are read from when they are not cached
+	private final File cacheFile;
+	private final List<File> sourceFiles;				// Files the cache must be checked against, the reference first
+
+	// Cache being read, blockStart is -1 if there is no valid cache and is set last once the cache is opened
+	private volatile long blockStart = -1;
+	private int[] cachedSerialNo;
+	private boolean[] cachedMatches;
+
+	private ProteinStructure checkedReference;			// Last reference checked against the cached serial numbers
+	private boolean referenceMatches;
+	private FileChannel cacheChannel;					// Channel the coordinate blocks are read through, null until first used
+
+	// Buffer each thread reads a coordinate block into, kept for the next block it reads
+	private final ThreadLocal<ByteBuffer> blockBuffer = new ThreadLocal<ByteBuffer>();
+
+	// Cache being written
+	private File tempFile;
+	private DataOutputStream cacheOut;
+	private CRC32 cacheCRC;
+	private boolean[] writtenMatches;
+	private int[] writtenSerialNo;
+	private int nextConformer;							// Conformer to write next, -1 once writing has been given up
+	private final Map<Integer, ConformerStructure> heldConformers = new HashMap<Integer, ConformerStructure>();
+
+	/**
+	 *
+	 * @param source source of the conformers to cache
+	 * @param referenceFile reference structure the conformers share their atoms with
+	 * @param cacheFile file to hold the cache
+	 */
+	CachedConformerSource( ConformerSource source, File referenceFile, File cacheFile ){
+
+		this.source = source;
+		this.cacheFile = cacheFile;
+
+		sourceFiles = new ArrayList<File>();
+		sourceFiles.add( referenceFile );
+		sourceFiles.addAll( source.getSourceFiles() );
+
+		// Any problem with the cache just means it is written again
+		try{
+			openCache();
+		}catch( IOException ex ){
+			blockStart = -1;
+		}
+	}
+
+	/**
+	 *
+	 * @return file holding the cache
+	 */
+	public File getCacheFile(){
+		return cacheFile;
+	}
+
+	/**
+	 *
+	 * @return true if the conformers are being read from a valid cache
+	 */
+	public boolean isCached(){
+		return blockStart >= 0;
+	}
+
+	// Check the cache is complete and up to date with the source files, and if so note where its coordinates are
+	private void openCache() throws IOException{
+
+		if( !cacheFile.isFile() || ( cacheFile.length() < PREAMBLE_LENGTH + CRC_LENGTH ) ){
+			return;
+		}
+
+		if( !checkCRC() ){
+			return;
+		}
+
+		DataInputStream inStream = new DataInputStream( new FileInputStream( cacheFile ) );
+		byte[] header;
+		try{
+			if( ( inStream.readInt() != MAGIC ) || ( inStream.readInt() != VERSION ) ){
+				return;
+			}
+			int headerLength = inStream.readInt();
+			if( ( headerLength < 0 ) || ( headerLength > cacheFile.length() ) ){
+				return;
+			}
+			header = new byte[headerLength];
+			inStream.readFully( header );
+		}finally{
+			inStream.close();
+		}
+
+		DataInputStream headerStream = new DataInputStream( new ByteArrayInputStream( header ) );
+
+		// Source files must be the same files, unchanged
+		int noOfFiles = headerStream.readInt();
+		if( noOfFiles != sourceFiles.size() ){
+			return;
+		}
+		for( File file : sourceFiles ){
+			if( !headerStream.readUTF().equals( file.getAbsolutePath() ) || ( headerStream.readLong() != file.length() ) ||
+					( headerStream.readLong() != file.lastModified() ) ){
+				return;
+			}
+		}
+
+		// The cache must hold the same conformers as the source, the frame options may have changed
+		int noOfConformers = headerStream.readInt();
+		if( noOfConformers != source.getSize() ){
+			return;
+		}
+		for( int i = 0; i < noOfConformers; i++ ){
+			if( headerStream.readInt() != source.getSequenceNo(i) ){
+				return;
+			}
+		}
+
+		int noOfAtoms = headerStream.readInt();
+		int[] serialNo = new int[noOfAtoms];
+		for( int i = 0; i < noOfAtoms; i++ ){
+			serialNo[i] = headerStream.readInt();
+		}
+
+		long start = PREAMBLE_LENGTH + header.length;
+		long matchesStart = start + (long)noOfConformers * blockLength( noOfAtoms );
+		if( matchesStart + noOfConformers + CRC_LENGTH != cacheFile.length() ){
+			return;
+		}
+
+		boolean[] matches = new boolean[noOfConformers];
+		RandomAccessFile file = new RandomAccessFile( cacheFile, "r" );
+		try{
+			file.seek( matchesStart );
+			for( int i = 0; i < noOfConformers; i++ ){
+				matches[i] = ( file.readByte() != 0 );
+			}
+		}finally{
+			file.close();
+		}
+
+		cachedSerialNo = serialNo;
+		cachedMatches = matches;
+		blockStart = start;
+	}
+
+	// Check the CRC at the end of the cache against the rest of its contents
+	private boolean checkCRC() throws IOException{
+
+		long crcStart = cacheFile.length() - CRC_LENGTH;
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[64 * 1024];
+
+		InputStream inStream = new FileInputStream( cacheFile );
+		try{
+			long position = 0;
+			int read;
+			while( ( position < crcStart ) && ( ( read = inStream.read( chunk, 0, (int)Math.min( chunk.length, crcStart - position ) ) ) > 0 ) ){
+				crc.update( chunk, 0, read );
+				position += read;
+			}
+			return new DataInputStream( inStream ).readLong() == crc.getValue();
+		}finally{
+			inStream.close();
+		}
+	}
+
+	private static long blockLength( int noOfAtoms ){
+		return 3L * 8 * noOfAtoms;
+	}
+
+	@Override
+	public Integer getSize(){
+		return source.getSize();
+	}
+
+	@Override
+	public int getSequenceNo( int conformerNo ){
+		return source.getSequenceNo( conformerNo );
+	}
+
+	@Override
+	public String getName( int conformerNo ){
+		return source.getName( conformerNo );
+	}
+
+	@Override
+	public ConformerStructure getConformer( int conformerNo, ProteinStructure reference, PDBReader reader ) throws IOException{
+
+		if( isCached() ){
+			if( matchesCachedReference( reference ) && cachedMatches[conformerNo] ){
+				return readCachedConformer( conformerNo, reference );
+			}
+			return source.getConformer( conformerNo, reference, reader );
+		}
+
+		ConformerStructure conformer = source.getConformer( conformerNo, reference, reader );
+		writeConformer( conformerNo, reference, conformer );
+		return conformer;
+	}
+
+	private synchronized boolean matchesCachedReference( ProteinStructure reference ){
+		if( reference != checkedReference ){
+			referenceMatches = Arrays.equals( reference.getAtomSerNoArray(), cachedSerialNo );
+			checkedReference = reference;
+		}
+		return referenceMatches;
+	}
+
+	// Conformers with atoms of their own are not cached
+	@Override
+	public ProteinStructure getStructure( int conformerNo, PDBReader reader, int columns ) throws IOException{
+		return source.getStructure( conformerNo, reader, columns );
+	}
+
+	// Cached conformers are read from the cache, so there is nothing to read ahead for them
+	@Override
+	public List<File> getConformerFiles( int conformerNo ){
+		if( isCached() ){
+			return Collections.<File>emptyList();
+		}
+		return source.getConformerFiles( conformerNo );
+	}
+
+	@Override
+	public List<File> getSourceFiles(){
+		return source.getSourceFiles();
+	}
+
+	// Read the coordinate block of a conformer into its coordinate arrays
+	private ConformerStructure readCachedConformer( int conformerNo, ProteinStructure reference ) throws IOException{
+
+		int noOfAtoms = cachedSerialNo.length;
+		double[] atomX = new double[noOfAtoms];
+		double[] atomY = new double[noOfAtoms];
+		double[] atomZ = new double[noOfAtoms];
+
+		ByteBuffer block = blockBuffer.get();
+		if( ( block == null ) || ( block.capacity() != blockLength( noOfAtoms ) ) ){
+			block = ByteBuffer.allocateDirect( (int)blockLength( noOfAtoms ) );
+			blockBuffer.set( block );
+		}
+		block.clear();
+
+		FileChannel channel = getCacheChannel();
+		long position = blockStart + conformerNo * blockLength( noOfAtoms );
+		while( block.hasRemaining() ){
+			if( channel.read( block, position + block.position() ) < 0 ){
+				throw new IOException("Cache " + cacheFile + " ends part way through conformer " + conformerNo );
+			}
+		}
+		block.flip();
+		block.asDoubleBuffer().get( atomX ).get( atomY ).get( atomZ );
+
+		return new ConformerStructure( reference, atomX, atomY, atomZ );
+	}
+
+	private synchronized FileChannel getCacheChannel() throws IOException{
+		if( cacheChannel == null ){
+			cacheChannel = new RandomAccessFile( cacheFile, "r" ).getChannel();
+		}
+		return cacheChannel;
+	}
+
+	/**
+	 * Note that the conformers before this one will not be read in this run, as when carrying on from a checkpoint.
+	 * The cache is written from the first conformer, so it is given up on for this run rather than holding every
+	 * conformer read while waiting for the first.
+	 *
+	 * @param conformerNo first conformer that will be read
+	 */
+	public synchronized void skipConformers( int conformerNo ){
+		if( !isCached() && ( conformerNo > nextConformer ) ){
+			abandonCache();
+		}
+	}
+
+	// Add a conformer read from the source to the cache being written.  Conformers that arrive ahead of the next one to
+	// write are held until it arrives, a conformer that has already been written means the conformers are being read
+	// again and the cache is given up on for this run.  Problems writing the cache do not stop the run.
+	private synchronized void writeConformer( int conformerNo, ProteinStructure reference, ConformerStructure conformer ){
+
+		if( ( nextConformer < 0 ) || ( conformerNo < nextConformer ) ){
+			abandonCache();
+			return;
+		}
+
+		heldConformers.put( conformerNo, conformer );
+		while( ( nextConformer >= 0 ) && heldConformers.containsKey( nextConformer ) ){
+			writeNextConformer( reference, heldConformers.remove( nextConformer ) );
+		}
+	}
+
+	private void writeNextConformer( ProteinStructure reference, ConformerStructure conformer ){
+
+		int conformerNo = nextConformer;
+
+		try{
+			if( conformerNo == 0 ){
+				startCache( reference );
+			}else if( !Arrays.equals( reference.getAtomSerNoArray(), writtenSerialNo ) ){
+				abandonCache();
+				return;
+			}
+
+			// Conformers that do not match the reference get an empty block
+			boolean matches = conformer.matchesReference();
+			writtenMatches[conformerNo] = matches;
+			double[][] coordinates = { conformer.getAtomX(), conformer.getAtomY(), conformer.getAtomZ() };
+			for( double[] axis : coordinates ){
+				for( int i = 0; i < writtenSerialNo.length; i++ ){
+					cacheOut.writeDouble( matches ? axis[i] : 0.0 );
+				}
+			}
+			nextConformer++;
+
+			if( nextConformer == source.getSize() ){
+				finishCache();
+			}
+		}catch( IOException ex ){
+			abandonCache();
+		}
+	}
+
+	private void startCache( ProteinStructure reference ) throws IOException{
+
+		int noOfConformers = source.getSize();
+		writtenSerialNo = reference.getAtomSerNoArray().clone();
+		writtenMatches = new boolean[noOfConformers];
+
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream( headerBytes );
+		header.writeInt( sourceFiles.size() );
+		for( File file : sourceFiles ){
+			header.writeUTF( file.getAbsolutePath() );
+			header.writeLong( file.length() );
+			header.writeLong( file.lastModified() );
+		}
+		header.writeInt( noOfConformers );
+		for( int i = 0; i < noOfConformers; i++ ){
+			header.writeInt( source.getSequenceNo(i) );
+		}
+		header.writeInt( writtenSerialNo.length );
+		for( int serialNo : writtenSerialNo ){
+			header.writeInt( serialNo );
+		}
+		header.close();
+
+		tempFile = new File( cacheFile.getPath() + ".tmp" );
+		cacheCRC = new CRC32();
+		cacheOut = new DataOutputStream( new BufferedOutputStream(
+				new CheckedOutputStream( new FileOutputStream( tempFile ), cacheCRC ), 64 * 1024 ) );
+
+		cacheOut.writeInt( MAGIC );
+		cacheOut.writeInt( VERSION );
+		cacheOut.writeInt( headerBytes.size() );
+		headerBytes.writeTo( cacheOut );
+	}
+
+	// Write the matches table and CRC, then replace the cache with the finished file and start reading from it
+	private void finishCache() throws IOException{
+
+		for( boolean matches : writtenMatches ){
+			cacheOut.writeByte( matches ? 1 : 0 );
+		}
+		cacheOut.flush();
+		cacheOut.writeLong( cacheCRC.getValue() );
+		cacheOut.close();
+		cacheOut = null;
+
+		if( cacheFile.exists() && !cacheFile.delete() ){
+			throw new IOException("Unable to replace cache " + cacheFile );
+		}
+		if( !tempFile.renameTo( cacheFile ) ){
+			throw new IOException("Unable to write cache " + cacheFile );
+		}
+
+		openCache();
+	}
+
+	/**
+	 * Finish with the cache at the end of a run.  A cache that is still being written, as when the run stops before
+	 * the last conformer, is given up on so its temporary file is not left behind, and a cache being read is closed
+	 * until conformers are next read from it.
+	 */
+	public synchronized void close(){
+
+		if( !isCached() && ( ( cacheOut != null ) || !heldConformers.isEmpty() ) ){
+			abandonCache();
+		}
+		if( cacheChannel != null ){
+			try{
+				cacheChannel.close();
+			}catch( IOException ex ){
+				// The cache has already been read
+			}
+			cacheChannel = null;
+		}
+	}
+
+	private void abandonCache(){
+
+		nextConformer = -1;
+		heldConformers.clear();
+		if( cacheOut != null ){
+			try{
+				cacheOut.close();
+			}catch( IOException ex ){
+				// Nothing more can be done with a cache that cannot be closed
+			}
+			cacheOut = null;
+		}
+		if( tempFile != null ){
+			tempFile.delete();
+		}
+	}
+}
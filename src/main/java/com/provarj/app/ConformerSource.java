@@ -0,0 +1,63 @@
+package com.provar.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+// Interface provides a unified way for passing the reference conformers into the pocket extractor, whether each
+// conformer is in its own PDB file or all of them are models in a single ensemble file
+public interface ConformerSource {
+
+	/**
+	 *
+	 * @return number of conformers in the source
+	 */
+	public Integer getSize();
+
+	/**
+	 *
+	 * @param conformerNo position of the conformer in the source
+	 * @return number used to match the conformer to its pocket prediction files
+	 */
+	public int getSequenceNo( int conformerNo );
+
+	/**
+	 *
+	 * @param conformerNo position of the conformer in the source
+	 * @return name of the conformer to show in messages
+	 */
+	public String getName( int conformerNo );
+
+	/**
+	 *
+	 * @param conformerNo position of the conformer in the source
+	 * @param reference structure with the same atoms as the conformer
+	 * @param reader reader used to read the atom records
+	 * @return conformer with only its coordinates read, the rest is shared with the reference
+	 * @throws IOException
+	 */
+	public ConformerStructure getConformer( int conformerNo, ProteinStructure reference, PDBReader reader ) throws IOException;
+
+	/**
+	 *
+	 * @param conformerNo position of the conformer in the source
+	 * @param reader reader used to read the atom records
+	 * @param columns ProteinStructure columns to read
+	 * @return conformer with its own atom details read
+	 * @throws IOException
+	 */
+	public ProteinStructure getStructure( int conformerNo, PDBReader reader, int columns ) throws IOException;
+
+	/**
+	 *
+	 * @param conformerNo position of the conformer in the source
+	 * @return files read for this conformer alone, empty if it is read from part of a file shared with other conformers
+	 */
+	public List<File> getConformerFiles( int conformerNo );
+
+	/**
+	 *
+	 * @return files the conformers are read from
+	 */
+	public List<File> getSourceFiles();
+}
@@ -0,0 +1,234 @@
+package com.provar.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Conformer of a reference structure that only keeps its own atom coordinates.  Every conformer in a CONF run has the
+// same atoms as the reference, so the serial numbers, names, residues and chains are taken from the reference
+// structure rather than being read and stored again for each conformer.  While reading, each atom is checked against
+// the reference by its position and serial number; use matchesReference to find out if the conformer can be used.
+public class ConformerStructure implements ProteinStructure, AtomRecordHandler {
+
+	private final ProteinStructure reference;		// Structure the atom details are shared with
+
+	private final double[] atomX;					// Atom coordinates, one array for each of X, Y and Z
+	private final double[] atomY;
+	private final double[] atomZ;
+	private List<double[]> atomXYZList;				// List version of the coordinates, only built if asked for
+
+	private final int[] referenceSerialNo;
+	private int atomCount;							// Atoms read so far
+	private boolean matchesReference;				// False once an atom has been found that does not match the reference
+
+	/**
+	 *
+	 * @param structureName filename of the conformer to load
+	 * @param reference structure with the same atoms as the conformer
+	 * @param reader reader used to read the atom records from the file
+	 * @throws IllegalArgumentException
+	 * @throws IOException
+	 */
+	public ConformerStructure( String structureName, ProteinStructure reference, PDBReader reader ) throws IllegalArgumentException, IOException{
+
+		this.reference = reference;
+
+		int noOfAtoms = reference.getAtomCount();
+		atomX = new double[noOfAtoms];
+		atomY = new double[noOfAtoms];
+		atomZ = new double[noOfAtoms];
+		referenceSerialNo = reference.getAtomSerNoArray();
+
+		// Check for valid filename string
+		if( ( structureName == null ) || ( structureName.length() == 0 ) ){
+			throw new IllegalArgumentException("PDB Filename is null or zero length");
+		}
+
+		File pdbFilename = new File( structureName );
+		if( !pdbFilename.exists() ){
+			throw new IllegalArgumentException("PDB File " + structureName +" does not exist or cannot be found");
+		}
+
+		matchesReference = true;
+		reader.readAtoms( pdbFilename, this );
+
+		// Too few atoms
+		if( atomCount != noOfAtoms ){
+			matchesReference = false;
+		}
+	}
+
+	/**
+	 *
+	 * @param reference structure with the same atoms as the conformer
+	 * @param atomX X coordinate of each atom, in the same order as the reference
+	 * @param atomY Y coordinate of each atom
+	 * @param atomZ Z coordinate of each atom
+	 */
+	ConformerStructure( ProteinStructure reference, double[] atomX, double[] atomY, double[] atomZ ){
+
+		this.reference = reference;
+		this.atomX = atomX;
+		this.atomY = atomY;
+		this.atomZ = atomZ;
+		referenceSerialNo = reference.getAtomSerNoArray();
+
+		// Coordinates without atom records can only be checked by their count
+		atomCount = atomX.length;
+		matchesReference = ( atomCount == reference.getAtomCount() );
+	}
+
+	// Only the coordinates are kept, the serial numbers are read to check each atom against the reference
+	@Override
+	public int getColumns(){
+		return COLUMN_XYZ | COLUMN_SERIAL_NO;
+	}
+
+	// Called by the PDBReader for each atom record read, waters are skipped as they are in the PDBStructure
+	@Override
+	public void addAtomRecord( double x, double y, double z, int serialNo, String name, String element,
+			String resName, int resSeqNo, String chain ){
+
+		if( !matchesReference || resName.equals("HOH") ){
+			return;
+		}
+
+		// Too many atoms, or a different atom in this position
+		if( ( atomCount == atomX.length ) || ( serialNo != referenceSerialNo[atomCount] ) ){
+			matchesReference = false;
+			return;
+		}
+
+		atomX[atomCount] = x;
+		atomY[atomCount] = y;
+		atomZ[atomCount] = z;
+		atomCount++;
+	}
+
+	/**
+	 *
+	 * @return true if the conformer has the same atoms with the same serial numbers in the same order as the reference
+	 */
+	public boolean matchesReference(){
+		return matchesReference;
+	}
+
+	/**
+	 *
+	 * @return total number of atoms in the structure
+	 */
+	public int getAtomCount(){
+		return atomCount;
+	}
+
+	/**
+	 *
+	 * @return list of coordinates for all the atoms in the structure
+	 */
+	public List<double[]> getAtomXYZ(){
+		if( atomXYZList == null ){
+			atomXYZList = new ArrayList<double[]>( atomCount );
+			for( int i = 0; i < atomCount; i++ ){
+				atomXYZList.add( new double[]{ atomX[i], atomY[i], atomZ[i] } );
+			}
+		}
+		return atomXYZList;
+	}
+
+	/**
+	 *
+	 * @return X coordinate of each atom in the structure
+	 */
+	public double[] getAtomX(){
+		return atomX;
+	}
+
+	/**
+	 *
+	 * @return Y coordinate of each atom in the structure
+	 */
+	public double[] getAtomY(){
+		return atomY;
+	}
+
+	/**
+	 *
+	 * @return Z coordinate of each atom in the structure
+	 */
+	public double[] getAtomZ(){
+		return atomZ;
+	}
+
+	/**
+	 *
+	 * @return list with all the atom numbers in series, shared with the reference
+	 */
+	public List<Integer> getAtomSerNos(){
+		return reference.getAtomSerNos();
+	}
+
+	/**
+	 *
+	 * @return array with all the atom numbers in series, shared with the reference
+	 */
+	public int[] getAtomSerNoArray(){
+		return reference.getAtomSerNoArray();
+	}
+
+	/**
+	 *
+	 * @return list with all the names for each atom, shared with the reference
+	 */
+	public List<String> getAtomNames(){
+		return reference.getAtomNames();
+	}
+
+	/**
+	 *
+	 * @return list containing the residues number that each atom belongs too, shared with the reference
+	 */
+	public List<Integer> getResidueSeqNo(){
+		return reference.getResidueSeqNo();
+	}
+
+	/**
+	 *
+	 * @return array containing the residues number that each atom belongs too, shared with the reference
+	 */
+	public int[] getResidueSeqNoArray(){
+		return reference.getResidueSeqNoArray();
+	}
+
+	/**
+	 *
+	 * @return list containing the residues name (3 letter code) for each atom, shared with the reference
+	 */
+	public List<String> getResidueName(){
+		return reference.getResidueName();
+	}
+
+	/**
+	 *
+	 * @return the ID of the chain for each atom in the structure, shared with the reference
+	 */
+	public List<String> getChainID(){
+		return reference.getChainID();
+	}
+
+	/**
+	 *
+	 * @return the element of each atom in the list, shared with the reference
+	 */
+	public List<String> getAtomElement(){
+		return reference.getAtomElement();
+	}
+
+	/**
+	 *
+	 * @return total number of residues in the structure, shared with the reference
+	 */
+	public int getMaxResidue(){
+		return reference.getMaxResidue();
+	}
+}
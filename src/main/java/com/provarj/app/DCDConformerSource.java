@@ -0,0 +1,251 @@
+package com.provar.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Reference conformers taken from the frames of a DCD trajectory, as written by CHARMM, NAMD and most other MD
+// packages.  The trajectory only holds coordinates, so the atoms are taken from the reference PDB, which must have
+// an atom record for every atom in the trajectory in the same order.  Waters are left out as they are from the PDB
+// structures.  Every frame is the same size, so each one is read straight from its place in the file into a buffer
+// that is re-used for every frame, and frames skipped by the first frame, last frame and stride are never read.
+// The frame number, counting from 1, matches each conformer to its pocket prediction files.
+public class DCDConformerSource implements ConformerSource {
+
+	private static final int HEADER_RECORD_LENGTH = 84;
+	private static final String HEADER_ID = "CORD";
+
+	private final File trajectoryFile;				// DCD file the frames are read from
+	private final File topologyFile;				// PDB file the atoms are read from
+	private final PDBStructure topology;			// Atoms of the trajectory, read from the reference PDB
+	private final int[] structureAtoms;				// Position in each frame of each atom in the structure, waters are not included
+
+	private ByteOrder byteOrder;					// Byte order the trajectory was written in
+	private int noOfAtoms;							// Atoms in each frame of the trajectory
+	private long headerLength;						// Bytes before the first frame
+	private int unitCellLength;						// Bytes of the unit cell record before the coordinates of each frame, 0 if there is none
+	private int frameLength;						// Bytes in each frame
+	private int noOfFrames;
+
+	private final int firstFrame;
+	private final int frameStride;
+	private final int noOfConformers;
+
+	private final byte[] frameBuffer;				// Bytes of the frame being read, re-used for every frame
+
+	/**
+	 *
+	 * @param trajectoryFile DCD trajectory holding the coordinates of the conformers
+	 * @param topologyFile PDB file with an atom record for each atom in the trajectory
+	 * @param reader reader used to read the topology file
+	 * @param firstFrame first frame to use, counting from 1
+	 * @param lastFrame last frame to use, 0 for the last frame in the trajectory
+	 * @param frameStride number of frames moved on between each frame used
+	 * @throws IOException
+	 */
+	DCDConformerSource( File trajectoryFile, File topologyFile, final PDBReader reader, int firstFrame, int lastFrame,
+			int frameStride ) throws IOException{
+
+		this.trajectoryFile = trajectoryFile;
+		this.topologyFile = topologyFile;
+		this.firstFrame = firstFrame;
+		this.frameStride = frameStride;
+
+		readHeader();
+
+		// Read the topology, noting the position of each atom kept in the structure
+		final int[] atomPositions = new int[noOfAtoms];
+		final int[] counts = new int[2];		// Atom records read and atoms kept
+		topology = new PDBStructure( topologyFile.toString(), new PDBReader(){
+			@Override
+			public void readAtoms( File pdbFile, final AtomRecordHandler structure ) throws IOException{
+				reader.readAtoms( pdbFile, new AtomRecordHandler(){
+					@Override
+					public int getColumns(){
+						return structure.getColumns();
+					}
+					@Override
+					public void addAtomRecord( double x, double y, double z, int serialNo, String name, String element,
+							String resName, int resSeqNo, String chain ){
+						if( ( counts[0] < atomPositions.length ) && !resName.equals("HOH") ){
+							atomPositions[counts[1]++] = counts[0];
+						}
+						counts[0]++;
+						structure.addAtomRecord( x, y, z, serialNo, name, element, resName, resSeqNo, chain );
+					}
+				});
+			}
+		});
+
+		if( counts[0] != noOfAtoms ){
+			throw new IOException("Trajectory " + trajectoryFile + " has " + noOfAtoms + " atoms but the topology " +
+					topologyFile + " has " + counts[0] );
+		}
+
+		structureAtoms = new int[counts[1]];
+		System.arraycopy( atomPositions, 0, structureAtoms, 0, counts[1] );
+
+		// Frames used, stopping at the end of the trajectory
+		int last = ( ( lastFrame == 0 ) || ( lastFrame > noOfFrames ) ) ? noOfFrames : lastFrame;
+		noOfConformers = ( last < firstFrame ) ? 0 : ( last - firstFrame ) / frameStride + 1;
+
+		frameBuffer = new byte[frameLength];
+	}
+
+	// Read the header records to find the number of atoms and the layout of each frame
+	private void readHeader() throws IOException{
+
+		RandomAccessFile file = new RandomAccessFile( trajectoryFile, "r" );
+		try{
+			// The first record is always the same length, which gives the byte order
+			byte[] marker = new byte[4];
+			file.readFully( marker );
+			if( ByteBuffer.wrap( marker ).order( ByteOrder.LITTLE_ENDIAN ).getInt() == HEADER_RECORD_LENGTH ){
+				byteOrder = ByteOrder.LITTLE_ENDIAN;
+			}else if( ByteBuffer.wrap( marker ).order( ByteOrder.BIG_ENDIAN ).getInt() == HEADER_RECORD_LENGTH ){
+				byteOrder = ByteOrder.BIG_ENDIAN;
+			}else{
+				throw new IOException( trajectoryFile + " is not a DCD trajectory");
+			}
+			file.seek(0);
+
+			ByteBuffer header = readRecord( file );
+			byte[] id = new byte[4];
+			header.get( id );
+			if( !new String( id, "ISO-8859-1" ).equals( HEADER_ID ) ){
+				throw new IOException( trajectoryFile + " is not a DCD coordinate trajectory");
+			}
+
+			// Control values following the ID, a CHARMM version in the last marks the CHARMM extensions
+			int[] control = new int[20];
+			for( int i = 0; i < control.length; i++ ){
+				control[i] = header.getInt();
+			}
+			boolean charmm = ( control[19] != 0 );
+			boolean hasUnitCell = charmm && ( control[10] == 1 );
+			boolean hasFourthDimension = charmm && ( control[11] == 1 );
+			if( control[8] != 0 ){
+				throw new IOException("Trajectory " + trajectoryFile + " has fixed atoms, which are not supported");
+			}
+
+			// Title record, then the number of atoms
+			readRecord( file );
+			noOfAtoms = readRecord( file ).getInt();
+			headerLength = file.getFilePointer();
+
+			// The unit cell record is usually six doubles, its own length is used in case it is not
+			if( hasUnitCell && ( headerLength < file.length() ) ){
+				unitCellLength = 8 + readRecord( file ).capacity();
+			}
+
+			int coordinateLength = 8 + 4 * noOfAtoms;
+			frameLength = unitCellLength + coordinateLength * ( hasFourthDimension ? 4 : 3 );
+
+			// The frame count in the header is not updated by every program, and not at all if a run stopped early
+			noOfFrames = (int)( ( file.length() - headerLength ) / frameLength );
+		}finally{
+			file.close();
+		}
+	}
+
+	// Read a Fortran unformatted record, the data is between two markers holding its length
+	private ByteBuffer readRecord( RandomAccessFile file ) throws IOException{
+
+		byte[] marker = new byte[4];
+		file.readFully( marker );
+		int length = ByteBuffer.wrap( marker ).order( byteOrder ).getInt();
+		if( ( length < 0 ) || ( length > file.length() - file.getFilePointer() - 4 ) ){
+			throw new IOException("Bad record length in DCD trajectory " + trajectoryFile );
+		}
+
+		byte[] data = new byte[length];
+		file.readFully( data );
+
+		file.readFully( marker );
+		if( ByteBuffer.wrap( marker ).order( byteOrder ).getInt() != length ){
+			throw new IOException("Bad record end in DCD trajectory " + trajectoryFile );
+		}
+		return ByteBuffer.wrap( data ).order( byteOrder );
+	}
+
+	@Override
+	public Integer getSize(){
+		return noOfConformers;
+	}
+
+	@Override
+	public int getSequenceNo( int conformerNo ){
+		return firstFrame + conformerNo * frameStride;
+	}
+
+	@Override
+	public String getName( int conformerNo ){
+		return trajectoryFile + " frame " + getSequenceNo( conformerNo );
+	}
+
+	@Override
+	public ConformerStructure getConformer( int conformerNo, ProteinStructure reference, PDBReader reader ) throws IOException{
+		return readFrame( conformerNo, reference );
+	}
+
+	// The trajectory has no atom details of its own, so the whole structure is the frame with the topology's atoms
+	@Override
+	public ProteinStructure getStructure( int conformerNo, PDBReader reader, int columns ) throws IOException{
+		return readFrame( conformerNo, topology );
+	}
+
+	// Every conformer is read from part of the same file
+	@Override
+	public List<File> getConformerFiles( int conformerNo ){
+		return Collections.<File>emptyList();
+	}
+
+	@Override
+	public List<File> getSourceFiles(){
+		return Arrays.asList( trajectoryFile, topologyFile );
+	}
+
+	// Read the coordinates of a frame for the atoms in the structure, one frame at a time as the buffer is shared
+	private ConformerStructure readFrame( int conformerNo, ProteinStructure reference ) throws IOException{
+
+		int frame = getSequenceNo( conformerNo );
+
+		synchronized( frameBuffer ){
+			RandomAccessFile file = new RandomAccessFile( trajectoryFile, "r" );
+			try{
+				file.seek( headerLength + (long)( frame - 1 ) * frameLength );
+				file.readFully( frameBuffer );
+			}finally{
+				file.close();
+			}
+
+			ByteBuffer data = ByteBuffer.wrap( frameBuffer ).order( byteOrder );
+			int coordinateLength = 8 + 4 * noOfAtoms;
+
+			return new ConformerStructure( reference,
+					coordinates( data, unitCellLength, frame ),
+					coordinates( data, unitCellLength + coordinateLength, frame ),
+					coordinates( data, unitCellLength + 2 * coordinateLength, frame ) );
+		}
+	}
+
+	// One coordinate of each atom in the structure, from the record starting at the given position in the frame
+	private double[] coordinates( ByteBuffer data, int start, int frame ) throws IOException{
+
+		int length = 4 * noOfAtoms;
+		if( ( data.getInt( start ) != length ) || ( data.getInt( start + 4 + length ) != length ) ){
+			throw new IOException("Frame " + frame + " of DCD trajectory " + trajectoryFile + " is damaged");
+		}
+
+		double[] coordinates = new double[structureAtoms.length];
+		for( int i = 0; i < structureAtoms.length; i++ ){
+			coordinates[i] = data.getFloat( start + 4 + 4 * structureAtoms[i] );
+		}
+		return coordinates;
+	}
+}
@@ -0,0 +1,183 @@
+package com.provar.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+// Decompresses gzip compressed structure files (.gz) for the readers.  The files that will be read next can be handed
+// to a pool of background threads with prefetch, so they are decompressed while the current structure is searched
+// for pockets, and the reader then takes the decompressed bytes with read or open.  Files that were not prefetched are
+// decompressed by the reader's own thread.  Bytes are only handed over if the file has the length and modification
+// time it had when it was prefetched, and files that will not be read after all are dropped again with cancel.
+final public class Decompressor {
+
+	private static final int THREADS = Math.max( 1, Runtime.getRuntime().availableProcessors() - 1 );
+
+	// Files handed to the pool and not yet read
+	private static final ConcurrentHashMap<File, Prefetch> pending = new ConcurrentHashMap<File, Prefetch>();
+
+	private static ExecutorService pool;
+
+	/**
+	 *
+	 * @param file structure file
+	 * @return true if the file is gzip compressed, going by its name
+	 */
+	public static boolean isCompressed( File file ){
+		return file.getName().toLowerCase().endsWith(".gz");
+	}
+
+	/**
+	 *
+	 * @return number of files worth prefetching ahead of the one being read
+	 */
+	public static int getLookahead(){
+		return 2 * THREADS;
+	}
+
+	/**
+	 * Start decompressing a file in the background, files that are not compressed are ignored
+	 *
+	 * @param file structure file that will be read soon
+	 */
+	public static void prefetch( final File file ){
+
+		if( !isCompressed( file ) || pending.containsKey( file ) ){
+			return;
+		}
+
+		// The file is noted before it is read, so one changed while it is decompressed is not taken as unchanged
+		long length = file.length();
+		long lastModified = file.lastModified();
+		Prefetch prefetch = new Prefetch( length, lastModified, getPool().submit( new Callable<byte[]>(){
+			@Override
+			public byte[] call() throws IOException{
+				return decompress( file );
+			}
+		}));
+		if( pending.putIfAbsent( file, prefetch ) != null ){
+			prefetch.future.cancel( false );
+		}
+	}
+
+	/**
+	 * Stop decompressing a file handed to prefetch that will not be read, and drop its bytes if they are ready
+	 *
+	 * @param file structure file
+	 */
+	public static void cancel( File file ){
+
+		Prefetch prefetch = pending.remove( file );
+		if( prefetch != null ){
+			prefetch.future.cancel( false );
+		}
+	}
+
+	/**
+	 *
+	 * @param file gzip compressed file
+	 * @return decompressed contents of the file
+	 * @throws IOException
+	 */
+	public static byte[] read( File file ) throws IOException{
+
+		// A file changed since it was prefetched, as when a run is repeated after the files are written again, is
+		// decompressed again
+		Prefetch prefetch = pending.remove( file );
+		if( ( prefetch == null ) || !prefetch.matches( file ) ){
+			if( prefetch != null ){
+				prefetch.future.cancel( false );
+			}
+			return decompress( file );
+		}
+
+		try{
+			return prefetch.future.get();
+		}catch( ExecutionException ex ){
+			if( ex.getCause() instanceof IOException ){
+				throw (IOException)ex.getCause();
+			}
+			throw new IOException("Unable to decompress " + file + ": " + ex.getCause() );
+		}catch( InterruptedException ex ){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted decompressing " + file );
+		}
+	}
+
+	/**
+	 *
+	 * @param file gzip compressed file
+	 * @return stream of the decompressed contents, from memory if the file was prefetched
+	 * @throws IOException
+	 */
+	public static InputStream open( File file ) throws IOException{
+
+		if( pending.containsKey( file ) ){
+			return new ByteArrayInputStream( read( file ) );
+		}
+		return new GZIPInputStream( new FileInputStream( file ), 64 * 1024 );
+	}
+
+	private static byte[] decompress( File file ) throws IOException{
+
+		// Structure files usually compress to around a quarter of their size
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream( (int)Math.min( 4 * file.length() + 1024, Integer.MAX_VALUE - 8 ) );
+		byte[] chunk = new byte[64 * 1024];
+
+		InputStream inStream = new GZIPInputStream( new FileInputStream( file ), chunk.length );
+		try{
+			int read;
+			while( ( read = inStream.read( chunk ) ) > 0 ){
+				outStream.write( chunk, 0, read );
+			}
+		}finally{
+			inStream.close();
+		}
+		return outStream.toByteArray();
+	}
+
+	// Threads are daemons so an unfinished prefetch does not keep the program running
+	private static synchronized ExecutorService getPool(){
+
+		if( pool == null ){
+			pool = Executors.newFixedThreadPool( THREADS, new ThreadFactory(){
+				@Override
+				public Thread newThread( Runnable task ){
+					Thread thread = new Thread( task, "provarj-decompress" );
+					thread.setDaemon( true );
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+
+	// Decompression of a prefetched file, with the length and modification time the file had when it was handed over
+	private static class Prefetch {
+
+		private final Future<byte[]> future;
+		private final long length;
+		private final long lastModified;
+
+		Prefetch( long length, long lastModified, Future<byte[]> future ){
+			this.length = length;
+			this.lastModified = lastModified;
+			this.future = future;
+		}
+
+		boolean matches( File file ){
+			return ( file.length() == length ) && ( file.lastModified() == lastModified );
+		}
+	}
+}
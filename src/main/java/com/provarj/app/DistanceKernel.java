@@ -0,0 +1,110 @@
+package com.provar.app;
+
+// Distance test at the heart of the pocket search.  Distances are compared squared against the squared radius, so
+// no square roots are taken and nothing is allocated.  The probes are passed as separate X, Y and Z arrays so that a
+// block of probes can be tested together by a vectorised subclass.
+public class DistanceKernel {
+
+	/**
+	 *
+	 * @param probeX X coordinates of the probes
+	 * @param probeY Y coordinates of the probes
+	 * @param probeZ Z coordinates of the probes
+	 * @param from index of the first probe to test
+	 * @param to index after the last probe to test
+	 * @param x X coordinate of the atom
+	 * @param y Y coordinate of the atom
+	 * @param z Z coordinate of the atom
+	 * @param radiusSq square of the pocket radius
+	 * @return true if any probe in the range lies closer to the atom than the radius
+	 */
+	public boolean anyWithin( double[] probeX, double[] probeY, double[] probeZ, int from, int to,
+			double x, double y, double z, double radiusSq ){
+
+		for( int p = from; p < to; p++ ){
+			if( isWithin( probeX[p], probeY[p], probeZ[p], x, y, z, radiusSq ) ){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 * @param probeX X coordinates of the probes
+	 * @param probeY Y coordinates of the probes
+	 * @param probeZ Z coordinates of the probes
+	 * @param from index of the first probe to test
+	 * @param to index after the last probe to test
+	 * @param x X coordinate of the atom
+	 * @param y Y coordinate of the atom
+	 * @param z Z coordinate of the atom
+	 * @param nearestSq squared distance to the nearest probe found so far
+	 * @return the smaller of nearestSq and the squared distance to the nearest probe in the range
+	 */
+	public double nearestDistanceSq( double[] probeX, double[] probeY, double[] probeZ, int from, int to,
+			double x, double y, double z, double nearestSq ){
+
+		for( int p = from; p < to; p++ ){
+			double dx = probeX[p] - x;
+			double dy = probeY[p] - y;
+			double dz = probeZ[p] - z;
+			nearestSq = Math.min( nearestSq, dx*dx + dy*dy + dz*dz );
+		}
+		return nearestSq;
+	}
+
+	/**
+	 *
+	 * @param pointX X coordinates of the indexed points
+	 * @param pointY Y coordinates of the indexed points
+	 * @param pointZ Z coordinates of the indexed points
+	 * @param pointIndex position of each point in the caller's nearestSq array
+	 * @param from index of the first point to test
+	 * @param to index after the last point to test
+	 * @param x X coordinate of the probe
+	 * @param y Y coordinate of the probe
+	 * @param z Z coordinate of the probe
+	 * @param nearestSq squared distance from each point to its nearest probe so far, lowered where this probe is nearer
+	 */
+	public void updateNearest( double[] pointX, double[] pointY, double[] pointZ, int[] pointIndex, int from, int to,
+			double x, double y, double z, double[] nearestSq ){
+
+		for( int p = from; p < to; p++ ){
+			double dx = pointX[p] - x;
+			double dy = pointY[p] - y;
+			double dz = pointZ[p] - z;
+			double distSq = dx*dx + dy*dy + dz*dz;
+			if( distSq < nearestSq[ pointIndex[p] ] ){
+				nearestSq[ pointIndex[p] ] = distSq;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return name of the kernel, used to report which kernel a run used
+	 */
+	public String getName(){
+		return DistanceKernelFactory.SCALAR;
+	}
+
+	/**
+	 *
+	 * @param probe coordinates of a probe in XYZ order
+	 * @param atom coordinates of an atom in XYZ order
+	 * @param radiusSq square of the pocket radius
+	 * @return true if the probe lies closer to the atom than the radius
+	 */
+	public boolean isWithin( double[] probe, double[] atom, double radiusSq ){
+		return isWithin( probe[0], probe[1], probe[2], atom[0], atom[1], atom[2], radiusSq );
+	}
+
+	// Squared distance between two points is less than the squared radius
+	private static boolean isWithin( double x1, double y1, double z1, double x2, double y2, double z2, double radiusSq ){
+		double dx = x1 - x2;
+		double dy = y1 - y2;
+		double dz = z1 - z2;
+		return dx*dx + dy*dy + dz*dz < radiusSq;
+	}
+}
@@ -0,0 +1,38 @@
+package com.provar.app;
+
+final public class DistanceKernelFactory {
+	
+	// Names of the available distance kernels
+	public static final String SCALAR = "scalar";
+	public static final String VECTOR = "vector";
+	
+	// The vector kernel is compiled separately, so it is only looked up by name
+	private static final String VECTOR_KERNEL_CLASS = "com.provar.app.VectorDistanceKernel";
+	
+	/*
+	 * Returns the distance kernel for the given name, falling back to the scalar kernel if the vector kernel was
+	 * not compiled in or the jdk.incubator.vector module is missing
+	 */
+	public static DistanceKernel CreateDistanceKernel( String name ){
+		
+		DistanceKernel kernel = null;
+		
+		if( name.equals( VECTOR ) ){
+			try{
+				kernel = (DistanceKernel)Class.forName( VECTOR_KERNEL_CLASS ).getDeclaredConstructor().newInstance();
+			}catch( Exception ex ){
+				// Vector kernel class is not on the class path
+				kernel = new DistanceKernel();
+			}catch( LinkageError ex ){
+				// Vector kernel class is present but the jdk.incubator.vector module is not
+				kernel = new DistanceKernel();
+			}
+		}else if( name.equals( SCALAR ) ){
+			kernel = new DistanceKernel();
+		}else{
+			throw new IllegalArgumentException("Unknown distance kernel: " + name );
+		}
+		
+		return kernel;
+	}
+}
@@ -0,0 +1,265 @@
+package com.provar.app;
+
+// K-d tree over the pocket probe coordinates of a single structure.  Unlike the SpatialGrid the tree adapts to how
+// the probes are spread, so probe sets that are packed into one deep cleft do not end up with a few crowded cells.
+// The tree is implicit: the probes are reordered so each node covers a contiguous range split at its median, and
+// only the split axis and value are stored for each node.  For probe-centric searches the tree is built over the
+// protein atoms and searched from each probe.
+public class KdTree implements NeighbourSearch {
+
+	// Nodes with this many probes or fewer are scanned directly
+	private static final int LEAF_SIZE = 8;
+
+	private double[][] probeXYZ = new double[3][];	// Probe coordinates, one array per axis, ordered by the tree
+	private int[] probeIndex;						// Position of each probe, ordered by the tree, in the arrays passed to build
+	private int probeCount;
+
+	private int[] splitAxis;						// Axis each node is split on, indexed as a binary heap
+	private double[] splitValue;					// Coordinate of the median probe each node is split at
+
+	private final DistanceKernel kernel;			// Distance test run over the probes of each leaf
+
+	public KdTree(){
+		this( new DistanceKernel() );
+	}
+
+	/**
+	 *
+	 * @param kernel distance test to run over the probes of each leaf
+	 */
+	public KdTree( DistanceKernel kernel ){
+		this.kernel = kernel;
+	}
+
+	/**
+	 *
+	 * @param x X coordinates of the pocket probes
+	 * @param y Y coordinates of the pocket probes
+	 * @param z Z coordinates of the pocket probes
+	 * @param count number of pocket probes
+	 * @param radius not needed to build the tree
+	 */
+	@Override
+	public void build( double[] x, double[] y, double[] z, int count, double radius ){
+
+		probeCount = count;
+
+		// Re-use the arrays from the last structure where they are big enough
+		if( ( probeXYZ[0] == null ) || ( probeXYZ[0].length < probeCount ) ){
+			for( int axis = 0; axis < 3; axis++ ){
+				probeXYZ[axis] = new double[probeCount];
+			}
+			probeIndex = new int[probeCount];
+		}
+
+		System.arraycopy( x, 0, probeXYZ[0], 0, probeCount );
+		System.arraycopy( y, 0, probeXYZ[1], 0, probeCount );
+		System.arraycopy( z, 0, probeXYZ[2], 0, probeCount );
+		for( int i = 0; i < probeCount; i++ ){
+			probeIndex[i] = i;
+		}
+
+		// Work out how many heap slots the nodes need, each level halves the size of the ranges
+		int levelNodes = 1;
+		for( int size = probeCount; size > LEAF_SIZE; size = ( size + 1 ) / 2 ){
+			levelNodes *= 2;
+		}
+
+		if( ( splitAxis == null ) || ( splitAxis.length < levelNodes * 2 ) ){
+			splitAxis = new int[levelNodes * 2];
+			splitValue = new double[levelNodes * 2];
+		}
+
+		buildNode( 0, 0, probeCount );
+	}
+
+	/**
+	 *
+	 * @param x X coordinate of the atom on the protein
+	 * @param y Y coordinate of the atom on the protein
+	 * @param z Z coordinate of the atom on the protein
+	 * @param radius pocket radius
+	 * @return true if any probe lies closer to the atom than the radius
+	 */
+	@Override
+	public boolean anyWithin( double x, double y, double z, double radius ){
+		return searchNode( 0, 0, probeCount, x, y, z, radius * radius );
+	}
+
+	/**
+	 *
+	 * @param x X coordinate of the atom on the protein
+	 * @param y Y coordinate of the atom on the protein
+	 * @param z Z coordinate of the atom on the protein
+	 * @param radius largest distance of interest
+	 * @return squared distance to the nearest probe if it is closer than the radius, otherwise at least the radius squared
+	 */
+	@Override
+	public double nearestDistanceSq( double x, double y, double z, double radius ){
+		return nearestNode( 0, 0, probeCount, x, y, z, radius * radius );
+	}
+
+	/**
+	 *
+	 * @param x X coordinate of the probe
+	 * @param y Y coordinate of the probe
+	 * @param z Z coordinate of the probe
+	 * @param radius largest distance of interest
+	 * @param nearestSq squared distance from each point in the tree to its nearest probe so far, lowered where this probe is nearer
+	 */
+	@Override
+	public void updateNearest( double x, double y, double z, double radius, double[] nearestSq ){
+		updateNode( 0, 0, probeCount, x, y, z, radius * radius, nearestSq );
+	}
+
+	// Split the probes in the range at the median of the axis with the largest spread
+	private void buildNode( int node, int from, int to ){
+
+		if( to - from <= LEAF_SIZE ){
+			return;
+		}
+
+		int axis = widestAxis( from, to );
+		int mid = ( from + to ) >>> 1;
+
+		select( probeXYZ[axis], from, to - 1, mid );
+
+		splitAxis[node] = axis;
+		splitValue[node] = probeXYZ[axis][mid];
+
+		buildNode( 2*node + 1, from, mid );
+		buildNode( 2*node + 2, mid, to );
+	}
+
+	private boolean searchNode( int node, int from, int to, double x, double y, double z, double radiusSq ){
+
+		// Leaf, check each probe in turn
+		if( to - from <= LEAF_SIZE ){
+			return kernel.anyWithin( probeXYZ[0], probeXYZ[1], probeXYZ[2], from, to, x, y, z, radiusSq );
+		}
+
+		int mid = ( from + to ) >>> 1;
+		int axis = splitAxis[node];
+		double diff = ( axis == 0 ? x : ( axis == 1 ? y : z ) ) - splitValue[node];
+
+		// Search the side of the split the atom lies on first, the other side can only hold a probe within
+		// the radius if the split plane itself is within the radius
+		if( diff < 0 ){
+			return searchNode( 2*node + 1, from, mid, x, y, z, radiusSq ) ||
+					( ( diff * diff < radiusSq ) && searchNode( 2*node + 2, mid, to, x, y, z, radiusSq ) );
+		}else{
+			return searchNode( 2*node + 2, mid, to, x, y, z, radiusSq ) ||
+					( ( diff * diff < radiusSq ) && searchNode( 2*node + 1, from, mid, x, y, z, radiusSq ) );
+		}
+	}
+
+	private double nearestNode( int node, int from, int to, double x, double y, double z, double nearestSq ){
+
+		if( to - from <= LEAF_SIZE ){
+			return kernel.nearestDistanceSq( probeXYZ[0], probeXYZ[1], probeXYZ[2], from, to, x, y, z, nearestSq );
+		}
+
+		int mid = ( from + to ) >>> 1;
+		int axis = splitAxis[node];
+		double diff = ( axis == 0 ? x : ( axis == 1 ? y : z ) ) - splitValue[node];
+
+		// Search the near side first, the far side only needs searching if the split plane is closer than the
+		// nearest probe found so far
+		if( diff < 0 ){
+			nearestSq = nearestNode( 2*node + 1, from, mid, x, y, z, nearestSq );
+			if( diff * diff < nearestSq ){
+				nearestSq = nearestNode( 2*node + 2, mid, to, x, y, z, nearestSq );
+			}
+		}else{
+			nearestSq = nearestNode( 2*node + 2, mid, to, x, y, z, nearestSq );
+			if( diff * diff < nearestSq ){
+				nearestSq = nearestNode( 2*node + 1, from, mid, x, y, z, nearestSq );
+			}
+		}
+		return nearestSq;
+	}
+
+	private void updateNode( int node, int from, int to, double x, double y, double z, double radiusSq, double[] nearestSq ){
+
+		if( to - from <= LEAF_SIZE ){
+			kernel.updateNearest( probeXYZ[0], probeXYZ[1], probeXYZ[2], probeIndex, from, to, x, y, z, nearestSq );
+			return;
+		}
+
+		int mid = ( from + to ) >>> 1;
+		int axis = splitAxis[node];
+		double diff = ( axis == 0 ? x : ( axis == 1 ? y : z ) ) - splitValue[node];
+
+		// Every point within the radius is needed, so both sides are searched unless the split plane is out of range
+		if( ( diff < 0 ) || ( diff * diff < radiusSq ) ){
+			updateNode( 2*node + 1, from, mid, x, y, z, radiusSq, nearestSq );
+		}
+		if( ( diff >= 0 ) || ( diff * diff < radiusSq ) ){
+			updateNode( 2*node + 2, mid, to, x, y, z, radiusSq, nearestSq );
+		}
+	}
+
+	private int widestAxis( int from, int to ){
+
+		int widest = 0;
+		double widestSpread = -1.0;
+
+		for( int axis = 0; axis < 3; axis++ ){
+			double[] coord = probeXYZ[axis];
+			double min = coord[from], max = coord[from];
+			for( int p = from + 1; p < to; p++ ){
+				min = Math.min( min, coord[p] );
+				max = Math.max( max, coord[p] );
+			}
+			if( max - min > widestSpread ){
+				widestSpread = max - min;
+				widest = axis;
+			}
+		}
+		return widest;
+	}
+
+	// Quickselect on the given axis so that the probe at k has the lower probes before it and the higher after
+	private void select( double[] coord, int left, int right, int k ){
+
+		while( right > left ){
+
+			double pivot = coord[ ( left + right ) >>> 1 ];
+			int i = left, j = right;
+
+			while( i <= j ){
+				while( coord[i] < pivot ){
+					i++;
+				}
+				while( coord[j] > pivot ){
+					j--;
+				}
+				if( i <= j ){
+					swap( i, j );
+					i++;
+					j--;
+				}
+			}
+
+			if( k <= j ){
+				right = j;
+			}else if( k >= i ){
+				left = i;
+			}else{
+				return;
+			}
+		}
+	}
+
+	private void swap( int i, int j ){
+		for( int axis = 0; axis < 3; axis++ ){
+			double[] coord = probeXYZ[axis];
+			double tmp = coord[i];
+			coord[i] = coord[j];
+			coord[j] = tmp;
+		}
+		int tmpIndex = probeIndex[i];
+		probeIndex[i] = probeIndex[j];
+		probeIndex[j] = tmpIndex;
+	}
+}
@@ -0,0 +1,614 @@
+package com.provar.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.biojava.bio.structure.Element;
+
+// Streaming reader for the _atom_site loop of an mmCIF file, the format larger complexes are only released in as
+// they overflow the serial number and coordinate columns of a PDB file.  The file, or gzip compressed file, is read
+// through once a line at a time; the loop columns are found by their names in the loop header and each row is passed
+// straight to the structure, so the file is never held in memory.  Only the first model of a multi-model file is
+// read, the same as the PDB readers, and reading stops as soon as the first model or the atom_site loop ends.  The
+// author atom names, residue names, residue numbers and chain IDs are used where given, as they match the PDB file.
+// The rows of each model of an ensemble can be found with indexModels, so a model can be read on its own from the
+// loop header followed by just its rows.
+public class MMCIFReader implements PDBReader {
+
+	private static final String ATOM_SITE = "_atom_site.";
+	private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8 };
+
+	// Columns used, with the column taken in its place if it is missing
+	private static final String[][] COLUMN_NAMES = {
+		{ "Cartn_x" }, { "Cartn_y" }, { "Cartn_z" }, { "id" },
+		{ "auth_atom_id", "label_atom_id" }, { "type_symbol" }, { "auth_comp_id", "label_comp_id" },
+		{ "auth_seq_id", "label_seq_id" }, { "auth_asym_id", "label_asym_id" }, { "label_alt_id" },
+		{ "pdbx_PDB_model_num" }, { "pdbx_PDB_ins_code" } };
+	private static final int X = 0, Y = 1, Z = 2, SERIAL = 3, NAME = 4, ELEMENT = 5, RES_NAME = 6, RES_SEQ = 7,
+			CHAIN = 8, ALT_ID = 9, MODEL = 10, INS_CODE = 11;
+
+	// Columns identifying the residue of an atom
+	private static final int[] RESIDUE_COLUMNS = { CHAIN, RES_SEQ, INS_CODE };
+
+	private static final int LINE_START = 0, LOOP_HEADER = 1, ATOM_SITE_ROWS = 2;
+
+	private byte[] line = new byte[256];			// Line being read, re-used for each line
+	private int lineLength;
+	private boolean pushedBack;						// True to read the current line again
+
+	private final byte[] chunk = new byte[64 * 1024];
+	private int chunkLength;
+	private int chunkPosition;
+	private long chunkOffset;						// Position in the file of the start of the chunk
+	private long lineStart;							// Position in the file of the start of the line
+
+	// Text of each field seen, so each distinct name is only made into a String once
+	private final TextTable names = new TextTable();
+	private final TextTable residueNames = new TextTable();
+	private final TextTable chainIDs = new TextTable();
+	private final TextTable elementTypes = new TextTable();
+
+	/**
+	 *
+	 * @param cifFile mmCIF file to read, gzip compressed if its name ends with .gz
+	 * @param structure structure to pass each atom read from the first model to
+	 * @throws IOException
+	 */
+	@Override
+	public void readAtoms( File cifFile, AtomRecordHandler structure ) throws IOException{
+
+		InputStream inStream = Decompressor.isCompressed( cifFile ) ? Decompressor.open( cifFile ) : new FileInputStream( cifFile );
+		try{
+			readAtoms( cifFile, inStream, structure, null );
+		}finally{
+			inStream.close();
+		}
+	}
+
+	/**
+	 *
+	 * @param cifFile mmCIF file the bytes were read from
+	 * @param bytes contents of the file, already decompressed if it was compressed
+	 * @param structure structure to pass each atom read from the first model to
+	 * @throws IOException
+	 */
+	public void readAtoms( File cifFile, byte[] bytes, AtomRecordHandler structure ) throws IOException{
+		readAtoms( cifFile, new ByteArrayInputStream( bytes ), structure, null );
+	}
+
+	/**
+	 * Find the atom_site loop header and the rows of each model in an uncompressed mmCIF file
+	 *
+	 * @param cifFile mmCIF file to index
+	 * @param index handler told where the loop header and each model's rows are
+	 * @throws IOException
+	 */
+	public void indexModels( File cifFile, ModelIndexHandler index ) throws IOException{
+
+		InputStream inStream = new FileInputStream( cifFile );
+		try{
+			readAtoms( cifFile, inStream, null, index );
+		}finally{
+			inStream.close();
+		}
+	}
+
+	// Read the atoms of the first model into the structure, or if there is an index handler pass it the position of
+	// each model's rows instead
+	private void readAtoms( File cifFile, InputStream inStream, AtomRecordHandler structure, ModelIndexHandler index ) throws IOException{
+
+		chunkLength = 0;
+		chunkPosition = 0;
+		chunkOffset = 0;
+		pushedBack = false;
+
+		int state = LINE_START;
+		int noOfColumns = 0;
+		boolean atomSiteLoop = false;
+		int[] columns = new int[COLUMN_NAMES.length];
+		String[] tags = new String[64];
+
+		// Start and end of each value in the row being gathered, a row may run over more than one line
+		int[] valueStart = null;
+		int[] valueEnd = null;
+		byte[] row = null;
+		int rowLength = 0;
+		int noOfValues = 0;
+
+		// Only the values of the columns the structure keeps are parsed
+		int kept = ( structure != null ) ? structure.getColumns() : 0;
+		boolean readXYZ = ( kept & ProteinStructure.COLUMN_XYZ ) != 0;
+		boolean readSerialNo = ( kept & ProteinStructure.COLUMN_SERIAL_NO ) != 0;
+		boolean readName = ( kept & ProteinStructure.COLUMN_ATOM_NAME ) != 0;
+		boolean readElement = ( kept & ProteinStructure.COLUMN_ELEMENT ) != 0;
+		boolean readResSeqNo = ( kept & ProteinStructure.COLUMN_RESIDUE_SEQ_NO ) != 0;
+		boolean readChain = ( kept & ProteinStructure.COLUMN_CHAIN_ID ) != 0;
+
+		Map<String, Byte> firstAltIds = new HashMap<String, Byte>();
+		int firstModel = 0;
+		boolean modelSeen = false;
+		int lineNo = 0;
+		long loopStart = 0;
+		long rowStart = 0;
+
+		while( readLine( inStream ) ){
+			lineNo++;
+
+			int start = skipSpaces( 0 );
+			if( ( start == lineLength ) || ( line[start] == '#' ) ){
+				continue;
+			}
+
+			if( state == ATOM_SITE_ROWS ){
+				// The loop ends at the next tag, loop or data block, and only one atom_site loop is read
+				if( ( line[start] == '_' ) || startsWith( start, "loop_" ) || startsWith( start, "data_" ) ){
+					if( index != null ){
+						index.endOfRows( lineStart );
+					}
+					return;
+				}
+				
+				if( noOfValues == 0 ){
+					rowStart = lineStart;
+				}
+
+				// Gather the values of the line into the row
+				int position = start;
+				while( position < lineLength ){
+					int end = valueEnd( position );
+					if( noOfValues == noOfColumns ){
+						throw new IOException("Too many values on line " + lineNo + " of " + cifFile );
+					}
+					int from = position, to = end;
+					if( ( line[from] == '\'' ) || ( line[from] == '"' ) ){
+						from++;
+						to--;
+					}
+					if( rowLength + ( to - from ) > row.length ){
+						byte[] larger = new byte[( rowLength + ( to - from ) ) * 2];
+						System.arraycopy( row, 0, larger, 0, rowLength );
+						row = larger;
+					}
+					System.arraycopy( line, from, row, rowLength, to - from );
+					valueStart[noOfValues] = rowLength;
+					rowLength += to - from;
+					valueEnd[noOfValues] = rowLength;
+					noOfValues++;
+					position = skipSpaces( end );
+				}
+
+				if( noOfValues < noOfColumns ){
+					continue;
+				}
+
+				// Note where each model's rows start rather than reading the atoms
+				if( index != null ){
+					try{
+						int model = ( columns[MODEL] >= 0 ) ? parseInt( row, valueStart[columns[MODEL]], valueEnd[columns[MODEL]], 1 ) : 1;
+						if( !modelSeen || ( model != firstModel ) ){
+							index.addModel( rowStart, model );
+							firstModel = model;
+							modelSeen = true;
+						}
+					}catch( NumberFormatException ex ){
+						throw new IOException("Unable to read model number on line " + lineNo + " of " + cifFile + ": " + ex.getMessage() );
+					}
+					noOfValues = 0;
+					rowLength = 0;
+					continue;
+				}
+
+				try{
+					// Only the first model is read, models follow one another in the loop
+					if( columns[MODEL] >= 0 ){
+						int model = parseInt( row, valueStart[columns[MODEL]], valueEnd[columns[MODEL]], 0 );
+						if( !modelSeen ){
+							firstModel = model;
+							modelSeen = true;
+						}else if( model != firstModel ){
+							return;
+						}
+					}
+
+					// Only the first alternate location found in each residue is kept, as BioJava does
+					boolean keep = true;
+					if( columns[ALT_ID] >= 0 ){
+						int from = valueStart[columns[ALT_ID]];
+						if( ( valueEnd[columns[ALT_ID]] > from ) && !isMissing( row, from, valueEnd[columns[ALT_ID]] ) ){
+							String residue = residueKey( row, valueStart, valueEnd, columns );
+							Byte firstAltId = firstAltIds.get( residue );
+							if( firstAltId == null ){
+								firstAltIds.put( residue, row[from] );
+							}else if( row[from] != firstAltId.byteValue() ){
+								keep = false;
+							}
+						}
+					}
+
+					if( keep ){
+						structure.addAtomRecord(
+								readXYZ ? parseDouble( row, valueStart[columns[X]], valueEnd[columns[X]] ) : 0,
+								readXYZ ? parseDouble( row, valueStart[columns[Y]], valueEnd[columns[Y]] ) : 0,
+								readXYZ ? parseDouble( row, valueStart[columns[Z]], valueEnd[columns[Z]] ) : 0,
+								( readSerialNo && ( columns[SERIAL] >= 0 ) ) ? parseInt( row, valueStart[columns[SERIAL]], valueEnd[columns[SERIAL]], -1 ) : -1,
+								readName ? text( names, row, valueStart, valueEnd, columns[NAME] ) : null,
+								readElement ? elementType( row, valueStart, valueEnd, columns[ELEMENT] ) : null,
+								text( residueNames, row, valueStart, valueEnd, columns[RES_NAME] ),
+								( readResSeqNo && ( columns[RES_SEQ] >= 0 ) ) ? parseInt( row, valueStart[columns[RES_SEQ]], valueEnd[columns[RES_SEQ]], 0 ) : 0,
+								readChain ? text( chainIDs, row, valueStart, valueEnd, columns[CHAIN] ) : null );
+					}
+				}catch( NumberFormatException ex ){
+					throw new IOException("Unable to read atom on line " + lineNo + " of " + cifFile + ": " + ex.getMessage() );
+				}
+
+				noOfValues = 0;
+				rowLength = 0;
+				continue;
+			}
+
+			if( startsWith( start, "loop_" ) ){
+				loopStart = lineStart;
+				state = LOOP_HEADER;
+				noOfColumns = 0;
+				atomSiteLoop = false;
+				continue;
+			}
+
+			if( state == LOOP_HEADER ){
+				if( line[start] == '_' ){
+					String tag = new String( line, start, valueEnd( start ) - start, LATIN_1 );
+					if( noOfColumns == tags.length ){
+						String[] larger = new String[tags.length * 2];
+						System.arraycopy( tags, 0, larger, 0, tags.length );
+						tags = larger;
+					}
+					tags[noOfColumns++] = tag;
+					atomSiteLoop = tag.startsWith( ATOM_SITE );
+					continue;
+				}
+
+				if( !atomSiteLoop ){
+					state = LINE_START;
+					continue;
+				}
+
+				// First row of the atom_site loop, find the columns used from the loop header
+				for( int c = 0; c < COLUMN_NAMES.length; c++ ){
+					columns[c] = -1;
+					for( int n = COLUMN_NAMES[c].length - 1; n >= 0; n-- ){
+						for( int t = 0; t < noOfColumns; t++ ){
+							if( tags[t].equals( ATOM_SITE + COLUMN_NAMES[c][n] ) ){
+								columns[c] = t;
+							}
+						}
+					}
+				}
+				if( ( columns[X] < 0 ) || ( columns[Y] < 0 ) || ( columns[Z] < 0 ) ){
+					throw new IOException("The atom_site loop of " + cifFile + " has no coordinates");
+				}
+
+				valueStart = new int[noOfColumns];
+				valueEnd = new int[noOfColumns];
+				row = new byte[256];
+				state = ATOM_SITE_ROWS;
+				if( index != null ){
+					index.addLoopHeader( loopStart, lineStart );
+				}
+
+				// Read this line again as the first row
+				lineNo--;
+				pushBackLine();
+			}
+		}
+		
+		// The loop ran to the end of the file
+		if( ( index != null ) && ( state == ATOM_SITE_ROWS ) ){
+			index.endOfRows( chunkOffset + chunkPosition );
+		}
+	}
+
+	// Read the next line into the line buffer without its line ending, false at the end of the file
+	private boolean readLine( InputStream inStream ) throws IOException{
+
+		if( pushedBack ){
+			pushedBack = false;
+			return true;
+		}
+
+		lineLength = 0;
+		lineStart = chunkOffset + chunkPosition;
+		while( true ){
+			if( chunkPosition == chunkLength ){
+				chunkOffset += chunkLength;
+				chunkLength = inStream.read( chunk );
+				chunkPosition = 0;
+				if( chunkLength <= 0 ){
+					chunkLength = 0;
+					return lineLength > 0;
+				}
+			}
+
+			byte b = chunk[chunkPosition++];
+			if( b == '\n' ){
+				if( ( lineLength > 0 ) && ( line[lineLength - 1] == '\r' ) ){
+					lineLength--;
+				}
+				return true;
+			}
+			if( lineLength == line.length ){
+				byte[] longer = new byte[line.length * 2];
+				System.arraycopy( line, 0, longer, 0, lineLength );
+				line = longer;
+			}
+			line[lineLength++] = b;
+		}
+	}
+
+	// Have the next readLine return the current line again
+	private void pushBackLine(){
+		pushedBack = true;
+	}
+
+	private int skipSpaces( int position ){
+		while( ( position < lineLength ) && ( ( line[position] == ' ' ) || ( line[position] == '\t' ) ) ){
+			position++;
+		}
+		return position;
+	}
+
+	// End of the value starting at the position, a quoted value ends at its closing quote followed by a space
+	private int valueEnd( int position ){
+
+		byte quote = line[position];
+		if( ( quote == '\'' ) || ( quote == '"' ) ){
+			for( int i = position + 1; i < lineLength; i++ ){
+				if( ( line[i] == quote ) && ( ( i + 1 == lineLength ) || ( line[i + 1] == ' ' ) || ( line[i + 1] == '\t' ) ) ){
+					return i + 1;
+				}
+			}
+		}
+
+		int end = position;
+		while( ( end < lineLength ) && ( line[end] != ' ' ) && ( line[end] != '\t' ) ){
+			end++;
+		}
+		return end;
+	}
+
+	private boolean startsWith( int start, String text ){
+
+		if( lineLength - start < text.length() ){
+			return false;
+		}
+		for( int i = 0; i < text.length(); i++ ){
+			if( line[start + i] != text.charAt(i) ){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Chain ID, residue number and insertion code of the row joined by '|', identifying the residue of the atom
+	private static String residueKey( byte[] row, int[] valueStart, int[] valueEnd, int[] columns ){
+
+		StringBuilder key = new StringBuilder();
+		for( int c : RESIDUE_COLUMNS ){
+			if( columns[c] >= 0 ){
+				key.append( new String( row, valueStart[columns[c]], valueEnd[columns[c]] - valueStart[columns[c]], LATIN_1 ) );
+			}
+			key.append( '|' );
+		}
+		return key.toString();
+	}
+
+	// A single . or ? marks a value that is not given
+	private static boolean isMissing( byte[] row, int from, int to ){
+		return ( to - from == 1 ) && ( ( row[from] == '.' ) || ( row[from] == '?' ) );
+	}
+
+	private String text( TextTable table, byte[] row, int[] valueStart, int[] valueEnd, int column ){
+
+		if( column < 0 ){
+			return "";
+		}
+		int from = valueStart[column];
+		int to = valueEnd[column];
+		if( isMissing( row, from, to ) ){
+			return "";
+		}
+
+		String text = table.get( row, from, to );
+		if( text == null ){
+			text = new String( row, from, to - from, LATIN_1 );
+			table.put( row, from, to, text );
+		}
+		return text;
+	}
+
+	// BioJava element type of the atom from the type symbol
+	private String elementType( byte[] row, int[] valueStart, int[] valueEnd, int column ){
+
+		if( column < 0 ){
+			return Element.R.getElementType().name();
+		}
+		int from = valueStart[column];
+		int to = valueEnd[column];
+
+		String type = elementTypes.get( row, from, to );
+		if( type == null ){
+			Element element;
+			try{
+				element = Element.valueOfIgnoreCase( new String( row, from, to - from, LATIN_1 ) );
+			}catch( IllegalArgumentException ex ){
+				// Unknown elements are given the BioJava unknown element
+				element = Element.R;
+			}
+			type = element.getElementType().name();
+			elementTypes.put( row, from, to, type );
+		}
+		return type;
+	}
+
+	// Whole number, or the value given if it is missing
+	private static int parseInt( byte[] row, int from, int to, int missing ){
+
+		if( ( from == to ) || isMissing( row, from, to ) ){
+			return missing;
+		}
+
+		boolean negative = ( row[from] == '-' );
+		if( negative || ( row[from] == '+' ) ){
+			from++;
+		}
+		if( from == to ){
+			throw new NumberFormatException("Missing number");
+		}
+
+		int value = 0;
+		for( int i = from; i < to; i++ ){
+			if( ( row[i] < '0' ) || ( row[i] > '9' ) ){
+				throw new NumberFormatException("Bad number " + new String( row, from, to - from, LATIN_1 ) );
+			}
+			value = value * 10 + ( row[i] - '0' );
+		}
+		return negative ? -value : value;
+	}
+
+	// Parse a coordinate such as "-12.345".  As in the NativePDBReader the digits are gathered into a whole number and
+	// divided by a power of ten, both exact, so the result is rounded the same as Double.parseDouble.  Anything else,
+	// such as an exponent or more digits than can be held exactly, is left to Double.parseDouble.
+	private static double parseDouble( byte[] row, int from, int to ){
+
+		int start = from;
+		boolean negative = ( from < to ) && ( row[from] == '-' );
+		if( negative || ( ( from < to ) && ( row[from] == '+' ) ) ){
+			from++;
+		}
+
+		long digits = 0;
+		int noOfDigits = 0;
+		int decimals = -1;
+		for( int i = from; i < to; i++ ){
+			byte b = row[i];
+			if( ( b >= '0' ) && ( b <= '9' ) ){
+				digits = digits * 10 + ( b - '0' );
+				noOfDigits++;
+				if( decimals >= 0 ){
+					decimals++;
+				}
+			}else if( ( b == '.' ) && ( decimals < 0 ) ){
+				decimals = 0;
+			}else{
+				return Double.parseDouble( new String( row, start, to - start, LATIN_1 ) );
+			}
+		}
+
+		if( ( noOfDigits == 0 ) || ( noOfDigits > 15 ) || ( decimals >= POWERS_OF_TEN.length ) ){
+			return Double.parseDouble( new String( row, start, to - start, LATIN_1 ) );
+		}
+
+		double value = ( decimals > 0 ) ? digits / POWERS_OF_TEN[decimals] : digits;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Told by indexModels where the atom_site loop header and the rows of each model are in an mmCIF file
+	 */
+	public interface ModelIndexHandler {
+
+		/**
+		 *
+		 * @param start position in the file of the loop_ line of the atom_site loop
+		 * @param end position in the file of the first row of the loop
+		 */
+		public void addLoopHeader( long start, long end );
+
+		/**
+		 *
+		 * @param start position in the file of the first row of the model
+		 * @param modelNo model number of the rows, from pdbx_PDB_model_num or 1 if there is no model number
+		 * @throws IOException
+		 */
+		public void addModel( long start, int modelNo ) throws IOException;
+
+		/**
+		 *
+		 * @param end position in the file just after the last row of the loop
+		 */
+		public void endOfRows( long end );
+	}
+
+	// Open addressing table from the bytes of a value to its text.  mmCIF files only use a small number of distinct
+	// names, so the table stays small and is kept for every file read.
+	private static class TextTable {
+
+		private byte[][] keys = new byte[64][];
+		private String[] values = new String[64];
+		private int size;
+
+		String get( byte[] row, int from, int to ){
+			for( int slot = slot( row, from, to, keys.length ); values[slot] != null; slot = ( slot + 1 ) & ( keys.length - 1 ) ){
+				if( matches( keys[slot], row, from, to ) ){
+					return values[slot];
+				}
+			}
+			return null;
+		}
+
+		void put( byte[] row, int from, int to, String value ){
+
+			// Keep the table at most half full
+			if( ( size + 1 ) * 2 > keys.length ){
+				byte[][] oldKeys = keys;
+				String[] oldValues = values;
+				keys = new byte[oldKeys.length * 2][];
+				values = new String[oldKeys.length * 2];
+				size = 0;
+				for( int i = 0; i < oldKeys.length; i++ ){
+					if( oldValues[i] != null ){
+						put( oldKeys[i], 0, oldKeys[i].length, oldValues[i] );
+					}
+				}
+			}
+
+			byte[] key = new byte[to - from];
+			System.arraycopy( row, from, key, 0, key.length );
+
+			int slot = slot( key, 0, key.length, keys.length );
+			while( values[slot] != null ){
+				slot = ( slot + 1 ) & ( keys.length - 1 );
+			}
+			keys[slot] = key;
+			values[slot] = value;
+			size++;
+		}
+
+		private static boolean matches( byte[] key, byte[] row, int from, int to ){
+			if( key.length != to - from ){
+				return false;
+			}
+			for( int i = 0; i < key.length; i++ ){
+				if( key[i] != row[from + i] ){
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static int slot( byte[] row, int from, int to, int length ){
+			int hash = 0;
+			for( int i = from; i < to; i++ ){
+				hash = hash * 31 + row[i];
+			}
+			hash *= 0x9E3779B9;
+			return ( hash ^ ( hash >>> 16 ) ) & ( length - 1 );
+		}
+	}
+}
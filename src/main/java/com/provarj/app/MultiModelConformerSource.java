@@ -0,0 +1,283 @@
+package com.provar.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Reference conformers stored as the models of a single multi-model PDB or mmCIF file, such as an NMR ensemble or the
+// frames of an MD run.  The file is scanned once for its MODEL records, or for the rows of each pdbx_PDB_model_num in
+// the atom_site loop of an mmCIF file, and only the position of each model in the file is kept.  Each conformer is
+// then read straight from its model when it is needed, by the NativePDBReader or by the MMCIFReader from the loop
+// header followed by the model's rows, so the file is not split up on disk and only one model is held in memory at a
+// time.  The model serial number matches each conformer to its pocket prediction files.
+public class MultiModelConformerSource implements ConformerSource {
+
+	// Record names looked for at the start of each line, the MODEL serial number follows the record name
+	private static final String MODEL_RECORD = "MODEL ";
+	private static final String ATOM_RECORD = "ATOM  ";
+	private static final String HETATM_RECORD = "HETATM";
+	private static final int LINE_START_LENGTH = 16;
+
+	private final File ensembleFile;				// Multi-model PDB or mmCIF file the conformers are read from
+	private final boolean isMMCIF;
+	private final NativePDBReader nativeReader;		// Reader used for the models when the reader passed in cannot read part of a file
+	private final MMCIFReader cifReader;			// Reader used for the models of an mmCIF file when the reader passed in has none
+	
+	// Position in an mmCIF file of the atom_site loop header, read before the rows of each model
+	private long loopHeaderStart;
+	private long loopHeaderEnd;
+	private long modelsEnd;							// Position in the file just after the last model
+
+	private long[] modelStart = new long[64];		// Position in the file of the MODEL record of each model
+	private int[] modelSerialNo = new int[64];		// Serial number of each model
+	private int noOfModels;
+	private boolean atomsBeforeModels;				// True if atom records were found before the first MODEL record
+
+	/**
+	 *
+	 * @param ensembleFile multi-model PDB or mmCIF file holding all the conformers
+	 * @throws IOException
+	 */
+	MultiModelConformerSource( File ensembleFile ) throws IOException{
+
+		this.ensembleFile = ensembleFile;
+		isMMCIF = StructureFileReader.isMMCIF( ensembleFile );
+		nativeReader = new NativePDBReader();
+		cifReader = new MMCIFReader();
+
+		// Models are read from their place in the file, which a compressed file does not have
+		if( Decompressor.isCompressed( ensembleFile ) ){
+			throw new IOException("Compressed ensemble files cannot be read model by model, please decompress " + ensembleFile );
+		}
+
+		if( isMMCIF ){
+			indexMMCIFModels();
+		}else{
+			indexModels();
+			modelsEnd = ensembleFile.length();
+		}
+	}
+	
+	// Find the atom_site loop header and the first row of each model in an mmCIF file, the rows of a model follow one
+	// another in the loop
+	private void indexMMCIFModels() throws IOException{
+		
+		final Set<Integer> modelNos = new HashSet<Integer>();
+		cifReader.indexModels( ensembleFile, new MMCIFReader.ModelIndexHandler(){
+			@Override
+			public void addLoopHeader( long start, long end ){
+				loopHeaderStart = start;
+				loopHeaderEnd = end;
+			}
+			
+			@Override
+			public void addModel( long start, int modelNo ) throws IOException{
+				if( !modelNos.add( modelNo ) ){
+					throw new IOException("The rows of model " + modelNo + " are not together in the atom_site loop of " + ensembleFile );
+				}
+				MultiModelConformerSource.this.addModel( start, modelNo );
+			}
+			
+			@Override
+			public void endOfRows( long end ){
+				modelsEnd = end;
+			}
+		});
+		
+		if( noOfModels == 0 ){
+			throw new IOException("No atoms found in the atom_site loop of " + ensembleFile );
+		}
+	}
+
+	// Find the start of each MODEL record in a single pass through the file.  Only the first few bytes of each line
+	// are kept while scanning, so the file is never held in memory.
+	private void indexModels() throws IOException{
+
+		byte[] chunk = new byte[64 * 1024];
+		byte[] lineStart = new byte[LINE_START_LENGTH];
+		int lineStartLength = 0;
+		long linePosition = 0;
+		long position = 0;
+
+		InputStream inStream = new FileInputStream( ensembleFile );
+		try{
+			int read;
+			while( ( read = inStream.read( chunk ) ) > 0 ){
+				for( int i = 0; i < read; i++, position++ ){
+					if( chunk[i] == '\n' ){
+						checkForModel( linePosition, lineStart, lineStartLength );
+						lineStartLength = 0;
+						linePosition = position + 1;
+					}else if( lineStartLength < LINE_START_LENGTH ){
+						lineStart[lineStartLength++] = chunk[i];
+					}
+				}
+			}
+			// Last line may not end with a new line
+			checkForModel( linePosition, lineStart, lineStartLength );
+		}finally{
+			inStream.close();
+		}
+
+		// A file without MODEL records holds a single model, as do the atoms of a file that only starts its
+		// MODEL records from the second model
+		if( ( noOfModels == 0 ) || atomsBeforeModels ){
+			int[] serialNos = Arrays.copyOf( modelSerialNo, noOfModels );
+			long[] starts = Arrays.copyOf( modelStart, noOfModels );
+			noOfModels = 0;
+			addModel( 0, 1 );
+			for( int i = 0; i < serialNos.length; i++ ){
+				addModel( starts[i], serialNos[i] );
+			}
+		}
+	}
+
+	// Record the position of the line if it is a MODEL record, noting any atoms found before the first one
+	private void checkForModel( long linePosition, byte[] lineStart, int lineStartLength ){
+
+		if( !isRecord( lineStart, lineStartLength, MODEL_RECORD ) ){
+			if( ( noOfModels == 0 ) && ( isRecord( lineStart, lineStartLength, ATOM_RECORD ) ||
+					isRecord( lineStart, lineStartLength, HETATM_RECORD ) ) ){
+				atomsBeforeModels = true;
+			}
+			return;
+		}
+
+		// The serial number is right justified after the record name, models without one are numbered in order
+		int serialNo = 0;
+		boolean hasSerialNo = false;
+		for( int i = MODEL_RECORD.length(); i < lineStartLength; i++ ){
+			byte b = lineStart[i];
+			if( ( b >= '0' ) && ( b <= '9' ) ){
+				serialNo = serialNo * 10 + ( b - '0' );
+				hasSerialNo = true;
+			}else if( hasSerialNo ){
+				break;
+			}
+		}
+
+		addModel( linePosition, hasSerialNo ? serialNo : noOfModels + 1 );
+	}
+
+	// Check the line starts with the given record name
+	private static boolean isRecord( byte[] lineStart, int lineStartLength, String record ){
+
+		if( lineStartLength < record.length() ){
+			return false;
+		}
+		for( int i = 0; i < record.length(); i++ ){
+			if( lineStart[i] != record.charAt(i) ){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void addModel( long position, int serialNo ){
+
+		if( noOfModels == modelStart.length ){
+			modelStart = Arrays.copyOf( modelStart, noOfModels * 2 );
+			modelSerialNo = Arrays.copyOf( modelSerialNo, noOfModels * 2 );
+		}
+		modelStart[noOfModels] = position;
+		modelSerialNo[noOfModels] = serialNo;
+		noOfModels++;
+	}
+
+	@Override
+	public Integer getSize(){
+		return noOfModels;
+	}
+
+	@Override
+	public int getSequenceNo( int conformerNo ){
+		return modelSerialNo[conformerNo];
+	}
+
+	@Override
+	public String getName( int conformerNo ){
+		return ensembleFile + " model " + modelSerialNo[conformerNo];
+	}
+
+	@Override
+	public ConformerStructure getConformer( int conformerNo, ProteinStructure reference, PDBReader reader ) throws IOException{
+		return new ConformerStructure( ensembleFile.toString(), reference, modelReader( conformerNo, reader ) );
+	}
+
+	@Override
+	public ProteinStructure getStructure( int conformerNo, PDBReader reader, int columns ) throws IOException{
+		return new PDBStructure( ensembleFile.toString(), modelReader( conformerNo, reader ), columns );
+	}
+
+	// Every conformer is read from part of the same file
+	@Override
+	public List<File> getConformerFiles( int conformerNo ){
+		return Collections.<File>emptyList();
+	}
+
+	@Override
+	public List<File> getSourceFiles(){
+		return Collections.singletonList( ensembleFile );
+	}
+
+	// Reader for just the bytes of one model.  Only the NativePDBReader can read part of a PDB file, so it is used in
+	// place of any other reader passed in.  The reader is locked while reading as the source's own reader is shared.
+	private PDBReader modelReader( int conformerNo, PDBReader reader ){
+
+		final long start = modelStart[conformerNo];
+		final long size = ( conformerNo + 1 < noOfModels ) ? modelStart[conformerNo + 1] - start : modelsEnd - start;
+		
+		if( isMMCIF ){
+			return cifModelReader( start, size, reader );
+		}
+
+		if( reader instanceof StructureFileReader ){
+			reader = ( (StructureFileReader)reader ).getPDBReader();
+		}
+		final NativePDBReader modelReader = ( reader instanceof NativePDBReader ) ? (NativePDBReader)reader : nativeReader;
+
+		return new PDBReader(){
+			@Override
+			public void readAtoms( File pdbFile, AtomRecordHandler structure ) throws IOException{
+				synchronized( modelReader ){
+					modelReader.readAtoms( pdbFile, start, size, structure );
+				}
+			}
+		};
+	}
+
+	// Reader for one model of an mmCIF file, which reads the atom_site loop header followed by the rows of the model
+	// so the MMCIFReader sees a file holding just that model
+	private PDBReader cifModelReader( final long start, final long size, PDBReader reader ){
+
+		final MMCIFReader modelReader = ( reader instanceof StructureFileReader ) ?
+				( (StructureFileReader)reader ).getMMCIFReader() : cifReader;
+
+		return new PDBReader(){
+			@Override
+			public void readAtoms( File cifFile, AtomRecordHandler structure ) throws IOException{
+				int headerLength = (int)( loopHeaderEnd - loopHeaderStart );
+				byte[] bytes = new byte[headerLength + (int)size];
+				RandomAccessFile file = new RandomAccessFile( cifFile, "r" );
+				try{
+					file.seek( loopHeaderStart );
+					file.readFully( bytes, 0, headerLength );
+					file.seek( start );
+					file.readFully( bytes, headerLength, (int)size );
+				}finally{
+					file.close();
+				}
+				synchronized( modelReader ){
+					modelReader.readAtoms( cifFile, bytes, structure );
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,447 @@
+package com.provar.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.biojava.bio.structure.Element;
+
+// Fixed column reader for the ATOM and HETATM records of a PDB file.  The records are parsed straight from the bytes
+// of the file into the structure without building any BioJava objects.  Every other record, including the
+// conformer headers the BioJava reader throws on, is skipped and reading stops at the end of the first model.  Later
+// models of a multi-model file are read by reading only the part of the file from their MODEL record.
+// The file is either read into a buffer that is re-used for each file, or mapped into memory with FileChannel.map
+// and parsed in place.  Gzip compressed files (.gz) are decompressed into memory by the Decompressor first.  Numbers
+// are parsed from the ASCII digits and the text fields are looked up in tables of the names already seen, so once the
+// tables are filled nothing is allocated for each record.
+public class NativePDBReader implements PDBReader {
+
+	// Columns of the atom record fields, zero based with the end column excluded, see the PDB format description
+	private static final int SERIAL_START = 6, SERIAL_END = 11;
+	private static final int NAME_START = 12, NAME_END = 16;
+	private static final int ALT_LOC = 16;
+	private static final int RES_NAME_START = 17, RES_NAME_END = 20;
+	private static final int CHAIN_ID = 21;
+	private static final int RES_SEQ_START = 22, RES_SEQ_END = 26;
+	private static final int INS_CODE = 26;
+	private static final int X_START = 30, Y_START = 38, Z_START = 46, COORD_WIDTH = 8;
+	private static final int ELEMENT_START = 76, ELEMENT_END = 78;
+
+	// Atom records must at least reach the end of the Z coordinate
+	private static final int MIN_ATOM_RECORD = Z_START + COORD_WIDTH;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8 };
+
+	private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+	private final boolean mapped;					// Map each file into memory rather than reading it into the buffer
+	private byte[] buffer = new byte[64 * 1024];	// Contents of the file being read, re-used for each file when not mapped
+	private ByteBuffer data;						// Bytes of the file being read
+
+	// Text of each name, residue name, chain ID and element type seen, keyed by the bytes of its columns
+	private final FieldTable names = new FieldTable();
+	private final FieldTable residueNames = new FieldTable();
+	private final FieldTable chainIDs = new FieldTable();
+	private final FieldTable elementTypes = new FieldTable();
+
+	public NativePDBReader(){
+		this( false );
+	}
+
+	/**
+	 *
+	 * @param mapped true to map each file into memory, false to read it into a buffer
+	 */
+	public NativePDBReader( boolean mapped ){
+		this.mapped = mapped;
+	}
+
+	/**
+	 *
+	 * @param pdbFile PDB file to read
+	 * @param structure structure to pass each atom record read from the first model to
+	 * @throws IOException
+	 */
+	@Override
+	public void readAtoms( File pdbFile, AtomRecordHandler structure ) throws IOException{
+		readAtoms( pdbFile, 0, pdbFile.length(), structure );
+	}
+
+	/**
+	 *
+	 * @param pdbFile PDB file to read
+	 * @param offset position in the file of the first byte to read, the start of a line
+	 * @param size number of bytes to read, at most to the end of the file
+	 * @param structure structure to pass each atom record read from the first model in the bytes read to
+	 * @throws IOException
+	 */
+	public void readAtoms( File pdbFile, long offset, long size, AtomRecordHandler structure ) throws IOException{
+
+		int length;
+		if( Decompressor.isCompressed( pdbFile ) ){
+			length = readCompressedFile( pdbFile, offset, size );
+		}else{
+			length = mapped ? mapFile( pdbFile, offset, size ) : readFile( pdbFile, offset, size );
+		}
+		parseAtoms( pdbFile, length, structure );
+	}
+
+	/**
+	 *
+	 * @param pdbFile PDB file the bytes were read from
+	 * @param bytes contents of the file, already decompressed if it was compressed
+	 * @param structure structure to pass each atom record read from the first model to
+	 * @throws IOException
+	 */
+	public void readAtoms( File pdbFile, byte[] bytes, AtomRecordHandler structure ) throws IOException{
+		data = ByteBuffer.wrap( bytes );
+		parseAtoms( pdbFile, bytes.length, structure );
+	}
+
+	// Parse the atom records from the first length bytes of the data
+	private void parseAtoms( File pdbFile, int length, AtomRecordHandler structure ) throws IOException{
+
+		// Only the fields of the columns the structure keeps are parsed
+		int columns = structure.getColumns();
+		boolean readXYZ = ( columns & ProteinStructure.COLUMN_XYZ ) != 0;
+		boolean readSerialNo = ( columns & ProteinStructure.COLUMN_SERIAL_NO ) != 0;
+		boolean readName = ( columns & ProteinStructure.COLUMN_ATOM_NAME ) != 0;
+		boolean readElement = ( columns & ProteinStructure.COLUMN_ELEMENT ) != 0;
+		boolean readResSeqNo = ( columns & ProteinStructure.COLUMN_RESIDUE_SEQ_NO ) != 0;
+		boolean readChain = ( columns & ProteinStructure.COLUMN_CHAIN_ID ) != 0;
+
+		// Only the first alternate location found in each residue is kept, as BioJava does, keyed by the chain ID,
+		// residue number and insertion code columns of the residue
+		Map<Long, Byte> firstAltLocs = new HashMap<Long, Byte>();
+
+		int lineNo = 0;
+		int end;
+		for( int start = 0; start < length; start = end + 1 ){
+
+			// Find the end of the line, ignoring any carriage return
+			end = start;
+			while( ( end < length ) && ( data.get( end ) != '\n' ) ){
+				end++;
+			}
+			int lineEnd = ( ( end > start ) && ( data.get( end - 1 ) == '\r' ) ) ? end - 1 : end;
+			lineNo++;
+
+			if( isRecord( start, lineEnd, "ENDMDL" ) ){
+				break;
+			}
+
+			if( !isRecord( start, lineEnd, "ATOM  " ) && !isRecord( start, lineEnd, "HETATM" ) ){
+				continue;
+			}
+
+			if( lineEnd - start < MIN_ATOM_RECORD ){
+				throw new IOException("Atom record is too short on line " + lineNo + " of " + pdbFile );
+			}
+
+			byte altLoc = data.get( start + ALT_LOC );
+			if( altLoc != ' ' ){
+				long residue = 0;
+				for( int i = start + CHAIN_ID; i <= start + INS_CODE; i++ ){
+					residue = ( residue << 8 ) | ( data.get( i ) & 0xFF );
+				}
+				Byte firstAltLoc = firstAltLocs.get( residue );
+				if( firstAltLoc == null ){
+					firstAltLocs.put( residue, altLoc );
+				}else if( altLoc != firstAltLoc.byteValue() ){
+					continue;
+				}
+			}
+
+			try{
+				structure.addAtomRecord(
+						readXYZ ? parseCoordinate( start + X_START ) : 0,
+						readXYZ ? parseCoordinate( start + Y_START ) : 0,
+						readXYZ ? parseCoordinate( start + Z_START ) : 0,
+						readSerialNo ? parseSerial( start + SERIAL_START, start + SERIAL_END ) : 0,
+						readName ? field( names, start + NAME_START, start + NAME_END ) : null,
+						readElement ? elementType( start, lineEnd ) : null,
+						field( residueNames, start + RES_NAME_START, start + RES_NAME_END ),
+						readResSeqNo ? parseInt( start + RES_SEQ_START, start + RES_SEQ_END ) : 0,
+						readChain ? field( chainIDs, start + CHAIN_ID, start + CHAIN_ID + 1 ) : null );
+
+			}catch( NumberFormatException ex ){
+				throw new IOException("Unable to read atom record on line " + lineNo + " of " + pdbFile + ": " + ex.getMessage() );
+			}
+		}
+	}
+
+	// Read part of the file into the buffer, growing it if needed, and return the number of bytes read
+	private int readFile( File pdbFile, long offset, long size ) throws IOException{
+
+		RandomAccessFile file = new RandomAccessFile( pdbFile, "r" );
+		try{
+			long fileLength = Math.min( size, file.length() - offset );
+			if( fileLength > Integer.MAX_VALUE ){
+				throw new IOException("PDB file " + pdbFile + " is too large to read");
+			}
+			if( buffer.length < fileLength ){
+				buffer = new byte[(int)fileLength];
+			}
+
+			int length = 0;
+			int read;
+			file.seek( offset );
+			while( ( length < fileLength ) && ( ( read = file.read( buffer, length, (int)fileLength - length ) ) > 0 ) ){
+				length += read;
+			}
+
+			data = ByteBuffer.wrap( buffer, 0, length );
+			return length;
+		}finally{
+			file.close();
+		}
+	}
+
+	// Decompress a gzip compressed file, which can only be read as a whole, and return its length
+	private int readCompressedFile( File pdbFile, long offset, long size ) throws IOException{
+
+		if( offset != 0 ){
+			throw new IOException("Part of the compressed file " + pdbFile + " cannot be read on its own");
+		}
+		byte[] bytes = Decompressor.read( pdbFile );
+		data = ByteBuffer.wrap( bytes );
+		return bytes.length;
+	}
+
+	// Map part of the file into memory and return its length.  The mapping is released by the garbage collector once
+	// the buffer is no longer referenced, closing the channel does not unmap it.
+	private int mapFile( File pdbFile, long offset, long size ) throws IOException{
+
+		RandomAccessFile file = new RandomAccessFile( pdbFile, "r" );
+		try{
+			FileChannel channel = file.getChannel();
+			long fileLength = Math.min( size, channel.size() - offset );
+			if( fileLength > Integer.MAX_VALUE ){
+				throw new IOException("PDB file " + pdbFile + " is too large to read");
+			}
+			data = channel.map( FileChannel.MapMode.READ_ONLY, offset, fileLength );
+			return (int)fileLength;
+		}finally{
+			file.close();
+		}
+	}
+
+	// Check the line starts with the given record name
+	private boolean isRecord( int start, int lineEnd, String record ){
+
+		if( lineEnd - start < record.length() ){
+			return false;
+		}
+		for( int i = 0; i < record.length(); i++ ){
+			if( data.get( start + i ) != record.charAt(i) ){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Text of a field of up to four columns with the surrounding spaces removed, taken from the table if it has
+	// been seen before
+	private String field( FieldTable table, int from, int to ){
+
+		int key = key( from, to );
+		String text = table.get( key );
+		if( text == null ){
+			text = trimmed( from, to );
+			table.put( key, text );
+		}
+		return text;
+	}
+
+	// Pack the bytes of up to four columns into an int, a column past the end of the field counts as a space
+	private int key( int from, int to ){
+		int key = 0;
+		for( int i = from; i < from + 4; i++ ){
+			key = ( key << 8 ) | ( ( i < to ) ? ( data.get(i) & 0xff ) : ' ' );
+		}
+		return key;
+	}
+
+	private String trimmed( int from, int to ){
+
+		while( ( from < to ) && ( data.get( from ) == ' ' ) ){
+			from++;
+		}
+		while( ( to > from ) && ( data.get( to - 1 ) == ' ' ) ){
+			to--;
+		}
+		return text( from, to );
+	}
+
+	private String text( int from, int to ){
+		byte[] bytes = new byte[to - from];
+		for( int i = from; i < to; i++ ){
+			bytes[i - from] = data.get(i);
+		}
+		return new String( bytes, LATIN_1 );
+	}
+
+	// Serial numbers that are not plain numbers, such as the overflow ***** of very large files, are read as -1
+	private int parseSerial( int from, int to ){
+		try{
+			return parseInt( from, to );
+		}catch( NumberFormatException ex ){
+			return -1;
+		}
+	}
+
+	private int parseInt( int from, int to ){
+
+		while( ( from < to ) && ( data.get( from ) == ' ' ) ){
+			from++;
+		}
+
+		boolean negative = ( from < to ) && ( data.get( from ) == '-' );
+		if( negative ){
+			from++;
+		}
+
+		if( from == to ){
+			throw new NumberFormatException("Missing number");
+		}
+
+		int value = 0;
+		for( int i = from; i < to; i++ ){
+			byte b = data.get(i);
+			if( ( b < '0' ) || ( b > '9' ) ){
+				throw new NumberFormatException("Bad number " + text( from, to ) );
+			}
+			value = value * 10 + ( b - '0' );
+		}
+		return negative ? -value : value;
+	}
+
+	// Parse a fixed width coordinate such as "  -12.345".  The digits are gathered into a whole number and divided
+	// by a power of ten, both exact, so the result is rounded the same as Double.parseDouble.
+	private double parseCoordinate( int from ){
+
+		int to = from + COORD_WIDTH;
+		while( ( from < to ) && ( data.get( from ) == ' ' ) ){
+			from++;
+		}
+
+		boolean negative = ( from < to ) && ( data.get( from ) == '-' );
+		if( negative ){
+			from++;
+		}
+
+		long digits = 0;
+		int decimals = -1;
+		for( int i = from; i < to; i++ ){
+			byte b = data.get(i);
+			if( ( b >= '0' ) && ( b <= '9' ) ){
+				digits = digits * 10 + ( b - '0' );
+				if( decimals >= 0 ){
+					decimals++;
+				}
+			}else if( ( b == '.' ) && ( decimals < 0 ) ){
+				decimals = 0;
+			}else{
+				throw new NumberFormatException("Bad coordinate " + text( from, to ) );
+			}
+		}
+
+		if( from == to ){
+			throw new NumberFormatException("Missing coordinate");
+		}
+
+		double value = ( decimals > 0 ) ? digits / POWERS_OF_TEN[decimals] : digits;
+		return negative ? -value : value;
+	}
+
+	// BioJava element type of the atom, from the element column or from the atom name for older files without one
+	private String elementType( int start, int lineEnd ){
+
+		// Both the element column and the start of the name are two columns with the element right justified, so
+		// equal keys from either give the same element
+		boolean hasElement = ( lineEnd - start >= ELEMENT_END ) &&
+				( ( data.get( start + ELEMENT_START ) != ' ' ) || ( data.get( start + ELEMENT_START + 1 ) != ' ' ) );
+		int key = hasElement ? key( start + ELEMENT_START, start + ELEMENT_END ) : key( start + NAME_START, start + NAME_START + 2 );
+
+		String type = elementTypes.get( key );
+		if( type == null ){
+
+			String symbol;
+			if( hasElement ){
+				symbol = trimmed( start + ELEMENT_START, start + ELEMENT_END );
+			}else{
+				// The element is right justified in the first two columns of the name, a leading digit or space is not part of it
+				byte first = data.get( start + NAME_START );
+				if( ( first == ' ' ) || ( ( first >= '0' ) && ( first <= '9' ) ) ){
+					symbol = trimmed( start + NAME_START + 1, start + NAME_START + 2 );
+				}else{
+					symbol = trimmed( start + NAME_START, start + NAME_START + 2 );
+				}
+			}
+
+			Element element;
+			try{
+				element = Element.valueOfIgnoreCase( symbol );
+			}catch( IllegalArgumentException ex ){
+				// Unknown elements are given the BioJava unknown element
+				element = Element.R;
+			}
+			type = element.getElementType().name();
+			elementTypes.put( key, type );
+		}
+		return type;
+	}
+
+	// Open addressing table from the packed bytes of a field to its text.  PDB files only use a small number of
+	// distinct names, so the table stays small and is kept for every file read.
+	private static class FieldTable {
+
+		private int[] keys = new int[64];
+		private String[] values = new String[64];
+		private int size;
+
+		String get( int key ){
+			for( int slot = slot( key, keys.length ); values[slot] != null; slot = ( slot + 1 ) & ( keys.length - 1 ) ){
+				if( keys[slot] == key ){
+					return values[slot];
+				}
+			}
+			return null;
+		}
+
+		void put( int key, String value ){
+
+			// Keep the table at most half full
+			if( ( size + 1 ) * 2 > keys.length ){
+				int[] oldKeys = keys;
+				String[] oldValues = values;
+				keys = new int[oldKeys.length * 2];
+				values = new String[oldKeys.length * 2];
+				size = 0;
+				for( int i = 0; i < oldKeys.length; i++ ){
+					if( oldValues[i] != null ){
+						put( oldKeys[i], oldValues[i] );
+					}
+				}
+			}
+
+			int slot = slot( key, keys.length );
+			while( values[slot] != null ){
+				slot = ( slot + 1 ) & ( keys.length - 1 );
+			}
+			keys[slot] = key;
+			values[slot] = value;
+			size++;
+		}
+
+		private static int slot( int key, int length ){
+			int hash = key * 0x9E3779B9;
+			return ( hash ^ ( hash >>> 16 ) ) & ( length - 1 );
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.provar.app;
+
+// Interface for a spatial search structure over the pocket probe coordinates of a single structure, used by the
+// PocketFinder to decide whether an atom is pocket lining.  When there are far fewer probes than atoms the
+// PocketFinder instead indexes the protein atoms and searches outwards from each probe with updateNearest.
+public interface NeighbourSearch {
+
+	/**
+	 * 
+	 * @param x X coordinates of the pocket probes
+	 * @param y Y coordinates of the pocket probes
+	 * @param z Z coordinates of the pocket probes
+	 * @param count number of pocket probes
+	 * @param radius largest radius that will be searched
+	 */
+	public void build( double[] x, double[] y, double[] z, int count, double radius );
+	
+	/**
+	 * 
+	 * @param x X coordinate of the atom on the protein
+	 * @param y Y coordinate of the atom on the protein
+	 * @param z Z coordinate of the atom on the protein
+	 * @param radius pocket radius, must not be larger than the radius the search was built with
+	 * @return true if any probe lies closer to the atom than the radius
+	 */
+	public boolean anyWithin( double x, double y, double z, double radius );
+	
+	/**
+	 * 
+	 * @param x X coordinate of the atom on the protein
+	 * @param y Y coordinate of the atom on the protein
+	 * @param z Z coordinate of the atom on the protein
+	 * @param radius largest distance of interest, must not be larger than the radius the search was built with
+	 * @return squared distance to the nearest probe if it is closer than the radius, otherwise at least the radius squared
+	 */
+	public double nearestDistanceSq( double x, double y, double z, double radius );
+	
+	/**
+	 * 
+	 * @param x X coordinate of the probe
+	 * @param y Y coordinate of the probe
+	 * @param z Z coordinate of the probe
+	 * @param radius largest distance of interest, must not be larger than the radius the search was built with
+	 * @param nearestSq squared distance from each indexed point to its nearest probe so far, in the order the points 
+	 * were passed to build, lowered wherever this probe is nearer.  Points further than the radius may be skipped.
+	 */
+	public void updateNearest( double x, double y, double z, double radius, double[] nearestSq );
+}
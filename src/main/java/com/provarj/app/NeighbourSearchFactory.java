@@ -0,0 +1,35 @@
+package com.provar.app;
+
+final public class NeighbourSearchFactory {
+	
+	// Names of the available neighbour search strategies
+	public static final String GRID = "grid";
+	public static final String KDTREE = "kdtree";
+	public static final String SCAN = "scan";
+	
+	/*
+	 * Returns the neighbour search for the given strategy name, or null for the full scan of every probe
+	 */
+	public static NeighbourSearch CreateNeighbourSearch( String name ){
+		return CreateNeighbourSearch( name, new DistanceKernel() );
+	}
+	
+	/*
+	 * Returns the neighbour search for the given strategy name using the given distance test, or null for the full
+	 * scan of every probe
+	 */
+	public static NeighbourSearch CreateNeighbourSearch( String name, DistanceKernel kernel ){
+		
+		NeighbourSearch search = null;
+		
+		if( name.equals( GRID ) ){
+			search = new SpatialGrid( kernel );
+		}else if( name.equals( KDTREE ) ){
+			search = new KdTree( kernel );
+		}else if( !name.equals( SCAN ) ){
+			throw new IllegalArgumentException("Unknown neighbour search: " + name );
+		}
+		
+		return search;
+	}
+}
@@ -0,0 +1,101 @@
+package com.provar.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Reference conformers stored one to a PDB file in the structure directory, with the number in each filename
+// matching the conformer to its pocket prediction files
+public class PDBFileConformerSource implements ConformerSource {
+
+	// Store a list of path and filenames for the reference structures
+	private final ArrayList<String> refStructs = new ArrayList<String>();
+
+	// Format of the conformer filename, group 1 holds the number of the conformer
+	private final Pattern refFileFormat;
+
+	/**
+	 *
+	 * @param structureDir directory containing the reference structures
+	 * @param refFileFormat format of the conformer filenames
+	 */
+	PDBFileConformerSource( File structureDir, Pattern refFileFormat ){
+
+		this.refFileFormat = refFileFormat;
+
+		// Get all files within the reference structure directory
+		String[] refFilenames = structureDir.list();
+
+		// Iterate over the list and store those that belong to that have correct format
+		// in the case of conformers it will contain a number
+		for( String filename : refFilenames ){
+
+			// First match the filename layout to ensure is number.pdb file
+			Matcher match = refFileFormat.matcher( filename.toString() );
+
+			// If a match is found add it to the list of reference structures
+			if( match.find() ){
+				if( match.group(1).length() > 0 ){
+					refStructs.add( structureDir + File.separator + filename );
+				}
+			}
+		}
+	}
+
+	@Override
+	public Integer getSize(){
+		return refStructs.size();
+	}
+
+	// Get the file corresponding to a filename in the series of reference structure files
+	@Override
+	public int getSequenceNo( int conformerNo ){
+
+		// Scan the filename for a number
+		Matcher match = refFileFormat.matcher( refStructs.get( conformerNo ) );
+
+		// First match the filename layout to ensure is number.pdb file
+		if( match.find() ){
+
+			// Return the sequence number of this reference file
+			if( match.group(1).length() > 0 ){
+				return Integer.valueOf( String.valueOf( match.group(1) ) );
+			}
+		}
+
+		return 0;
+	}
+
+	@Override
+	public String getName( int conformerNo ){
+		return refStructs.get( conformerNo );
+	}
+
+	@Override
+	public ConformerStructure getConformer( int conformerNo, ProteinStructure reference, PDBReader reader ) throws IOException{
+		return new ConformerStructure( refStructs.get( conformerNo ), reference, reader );
+	}
+
+	@Override
+	public ProteinStructure getStructure( int conformerNo, PDBReader reader, int columns ) throws IOException{
+		return new PDBStructure( refStructs.get( conformerNo ), reader, columns );
+	}
+
+	@Override
+	public List<File> getConformerFiles( int conformerNo ){
+		return Collections.singletonList( new File( refStructs.get( conformerNo ) ) );
+	}
+
+	@Override
+	public List<File> getSourceFiles(){
+		List<File> files = new ArrayList<File>( refStructs.size() );
+		for( String filename : refStructs ){
+			files.add( new File( filename ) );
+		}
+		return files;
+	}
+}
@@ -0,0 +1,17 @@
+package com.provar.app;
+
+import java.io.File;
+import java.io.IOException;
+
+// Interface for reading the atom records of a PDB file into a PDBStructure or ConformerStructure, this allows the
+// fast native parser to be swapped for the BioJava parser for files the native parser cannot handle
+public interface PDBReader {
+
+	/**
+	 * 
+	 * @param pdbFile PDB file to read
+	 * @param structure structure to pass each atom record read from the first model to
+	 * @throws IOException
+	 */
+	public void readAtoms( File pdbFile, AtomRecordHandler structure ) throws IOException;
+}
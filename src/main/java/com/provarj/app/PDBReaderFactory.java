@@ -0,0 +1,37 @@
+package com.provar.app;
+
+final public class PDBReaderFactory {
+	
+	// Names of the available PDB readers
+	public static final String NATIVE = "native";		// Fixed column parser reading straight into the atom arrays
+	public static final String MAPPED = "mapped";		// Fixed column parser reading from a memory mapped view of the file
+	public static final String BIOJAVA = "biojava";		// BioJava PDBFileReader, builds the full structure object graph
+	
+	/*
+	 * Returns the PDB reader for the given name, mmCIF files are always read with the MMCIFReader
+	 */
+	public static PDBReader CreatePDBReader( String name ){
+		return CreateStructureFileReader( name );
+	}
+	
+	/*
+	 * Returns the PDB reader for the given name as a StructureFileReader, so that file contents already read into
+	 * memory can be handed to it
+	 */
+	public static StructureFileReader CreateStructureFileReader( String name ){
+		
+		PDBReader reader = null;
+		
+		if( name.equals( NATIVE ) ){
+			reader = new NativePDBReader( false );
+		}else if( name.equals( MAPPED ) ){
+			reader = new NativePDBReader( true );
+		}else if( name.equals( BIOJAVA ) ){
+			reader = new BioJavaPDBReader();
+		}else{
+			throw new IllegalArgumentException("Unknown PDB reader: " + name );
+		}
+		
+		return new StructureFileReader( reader );
+	}
+}
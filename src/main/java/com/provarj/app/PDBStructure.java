@@ -1,19 +1,10 @@
 package com.provar.app;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.*;
 
-import org.biojava.bio.structure.*;
-import org.biojava.bio.structure.io.*;
-import org.biojava.bio.structure.AtomIterator;
-
-public class PDBStructure implements ProteinStructure {
+public class PDBStructure implements ProteinStructure, AtomRecordHandler {
 		
 		// All data concerning the PDB structure is primarily centred around the atoms
 		// of the structure, each index in these lists represents an atom, from here
@@ -21,19 +12,46 @@ public class PDBStructure implements ProteinStructure {
 	
 		// Note: Should only ever be concerned with reading in one chain
 	
-		// Atom data lists
-		private List<double[]> 	atomXYZ;			// Atom relative coordinates in XYZ order
-		private List<Integer> 	atomSerialNo;		// Atom serial number
-		private List<String> 	atomName;			// Atom name 
-		private List<Integer>	residueSeqNo;		// The sequence number of the residue the atom belongs too
-		private List<String> 	residueName;		// Name of the residue the atom belongs too
-		private List<String> 	chainID;			// Chain letter of chain the atom belongs too
-		private List<String> 	atomElement;		// Atom element name
-		private List<String>	aaSeq;				// Amino acid sequence in 3-letter format
+		// Atom data, the coordinates, serial numbers and residue numbers are kept in primitive arrays that
+		// grow as atoms are read and are trimmed to the number of atoms once the structure is loaded
+		private double[]		atomX;				// Atom relative coordinates, one array for each of X, Y and Z
+		private double[]		atomY;
+		private double[]		atomZ;
+		private int[]			atomSerialNo;		// Atom serial number
+		private int[]			residueSeqNo;		// The sequence number of the residue the atom belongs too
+		
+		// Names are held as codes in the shared SymbolTable, as most atoms share their names with many others
+		private short[]			atomName;			// Atom name 
+		private short[]			residueName;		// Name of the residue the atom belongs too, also the amino acid sequence in 3-letter format
+		private short[]			chainID;			// Chain letter of chain the atom belongs too
+		private short[]			atomElement;		// Atom element name
 		
 		private List<String>	chains;
 		private List<Integer>	chainStart;
 		
+		// List versions of the primitive atom data, only built if they are asked for
+		private List<double[]>	atomXYZList;
+		private List<Integer>	atomSerialNoList;
+		private List<Integer>	residueSeqNoList;
+		private List<String>	atomNameList;
+		private List<String>	residueNameList;
+		private List<String>	chainIDList;
+		private List<String>	atomElementList;
+		
+		// Number of atoms the primitive arrays are first allocated for
+		private static final int INITIAL_ATOM_CAPACITY = 1024;
+		
+		// Reads the atom records of each file into this structure
+		private final PDBReader reader;
+		
+		// ProteinStructure columns read from the file, the arrays of the other columns are never allocated
+		private final int columns;
+		private int capacity;
+		
+		// Chain and highest residue number seen so far in the file being read
+		private String lastChain;
+		private int maxRes;
+		
 		/**
 		 * 
 		 * @param structureName filename of the single structure to load
@@ -41,22 +59,42 @@ public class PDBStructure implements ProteinStructure {
 		 * @throws IOException
 		 */
 		public PDBStructure( String structureName ) throws IllegalArgumentException, IOException{
+			this( structureName, PDBReaderFactory.CreatePDBReader( PDBReaderFactory.NATIVE ) );
+		}
+		
+		/**
+		 * 
+		 * @param structureName filename of the single structure to load
+		 * @param reader reader used to read the atom records from the file
+		 * @throws IllegalArgumentException
+		 * @throws IOException
+		 */
+		public PDBStructure( String structureName, PDBReader reader ) throws IllegalArgumentException, IOException{
+			this( structureName, reader, COLUMN_ALL );
+		}
+		
+		/**
+		 * 
+		 * @param structureName filename of the single structure to load
+		 * @param reader reader used to read the atom records from the file
+		 * @param columns ProteinStructure columns to read, asking for any other column throws an IllegalStateException
+		 * @throws IllegalArgumentException
+		 * @throws IOException
+		 */
+		public PDBStructure( String structureName, PDBReader reader, int columns ) throws IllegalArgumentException, IOException{
+			
+			this.reader = reader;
+			this.columns = columns;
 			
 			// Arrays to store data for each atoms
-			atomXYZ = new ArrayList<double[]>();
-			atomSerialNo = new ArrayList<Integer>();
-			atomName = new ArrayList<String>();
-			residueSeqNo = new ArrayList<Integer>();
-			residueName = new ArrayList<String>();
-			chainID = new ArrayList<String>();
-			atomElement = new ArrayList<String>();	
-			aaSeq = new ArrayList<String>();	
+			allocate( INITIAL_ATOM_CAPACITY );
 			
 			chains = new ArrayList<String>();
 			chainStart = new ArrayList<Integer>();
 			
 			try{
 				loadStructureData( verifyStructureFile( structureName ) );
+				trimToAtomCount();
 			}catch(IllegalArgumentException ex){
 				throw ex;
 			}catch(IOException ex){
@@ -71,16 +109,35 @@ public class PDBStructure implements ProteinStructure {
 		 * @throws IOException
 		 */
 		public PDBStructure(ArrayList<String> multiParts) throws IllegalArgumentException, IOException{
+			this( multiParts, PDBReaderFactory.CreatePDBReader( PDBReaderFactory.NATIVE ) );
+		}
+		
+		/**
+		 * 
+		 * @param multiParts filename of the structure to load that has multiple parts
+		 * @param reader reader used to read the atom records from each part
+		 * @throws IllegalArgumentException
+		 * @throws IOException
+		 */
+		public PDBStructure(ArrayList<String> multiParts, PDBReader reader) throws IllegalArgumentException, IOException{
+			this( multiParts, reader, COLUMN_ALL );
+		}
+		
+		/**
+		 * 
+		 * @param multiParts filename of the structure to load that has multiple parts
+		 * @param reader reader used to read the atom records from each part
+		 * @param columns ProteinStructure columns to read, asking for any other column throws an IllegalStateException
+		 * @throws IllegalArgumentException
+		 * @throws IOException
+		 */
+		public PDBStructure(ArrayList<String> multiParts, PDBReader reader, int columns) throws IllegalArgumentException, IOException{
+			
+			this.reader = reader;
+			this.columns = columns;
 			
 			// Arrays to store data for each atoms
-			atomXYZ = new ArrayList<double[]>();
-			atomSerialNo = new ArrayList<Integer>();
-			atomName = new ArrayList<String>();
-			residueSeqNo = new ArrayList<Integer>();
-			residueName = new ArrayList<String>();
-			chainID = new ArrayList<String>();
-			atomElement = new ArrayList<String>();	
-			aaSeq = new ArrayList<String>();	
+			allocate( INITIAL_ATOM_CAPACITY );
 			
 			chains = new ArrayList<String>();
 			chainStart = new ArrayList<Integer>();
@@ -89,6 +146,7 @@ public class PDBStructure implements ProteinStructure {
 				for(String part : multiParts){
 					loadStructureData( verifyStructureFile( part ) );
 				}
+				trimToAtomCount();
 			}catch( IllegalArgumentException ex ){
 				throw ex;
 			}catch(IOException ex){
@@ -106,6 +164,7 @@ public class PDBStructure implements ProteinStructure {
 		 * @return total number of residues in the structure
 		 */
 		public int getMaxResidue(){
+			checkLoaded( COLUMN_RESIDUE_SEQ_NO, "Residue numbers" );
 			return maximumResidueNo;
 		}
 		
@@ -117,12 +176,62 @@ public class PDBStructure implements ProteinStructure {
 			return atomCount;
 		}
 		
+		/**
+		 * 
+		 * @return ProteinStructure columns read from the structure file
+		 */
+		@Override
+		public int getColumns(){
+			return columns;
+		}
+		
+		// Asking for a column that was left out when the structure was read is a mistake in the caller
+		private void checkLoaded( int column, String name ){
+			if( ( columns & column ) == 0 ){
+				throw new IllegalStateException( name + " were not read for this structure");
+			}
+		}
+		
 		/**
 		 * 
 		 * @return list of coordinates for all the atoms in the structure
 		 */
 		public List<double[]> getAtomXYZ(){
-			return atomXYZ; 
+			checkLoaded( COLUMN_XYZ, "Atom coordinates" );
+			if( atomXYZList == null ){
+				atomXYZList = new ArrayList<double[]>( atomCount );
+				for( int i = 0; i < atomCount; i++ ){
+					atomXYZList.add( new double[]{ atomX[i], atomY[i], atomZ[i] } );
+				}
+			}
+			return atomXYZList; 
+		}
+		
+		/**
+		 * 
+		 * @return X coordinate of each atom in the structure
+		 */
+		public double[] getAtomX(){
+			checkLoaded( COLUMN_XYZ, "Atom coordinates" );
+			return atomX;
+		}
+		
+		/**
+		 * 
+		 * @return Y coordinate of each atom in the structure
+		 */
+		public double[] getAtomY(){
+			checkLoaded( COLUMN_XYZ, "Atom coordinates" );
+			return atomY;
+		}
+		
+		/**
+		 * 
+		 * @return Z coordinate of each atom in the structure
+		 */
+		public double[] getAtomZ(){
+			checkLoaded( COLUMN_XYZ, "Atom coordinates" );
+			return atomZ;
 		}
 		
 		/**
@@ -130,6 +239,19 @@ public class PDBStructure implements ProteinStructure {
 		 * @return list with all the atom numbers in series
 		 */
 		public List<Integer> getAtomSerNos(){
+			checkLoaded( COLUMN_SERIAL_NO, "Atom serial numbers" );
+			if( atomSerialNoList == null ){
+				atomSerialNoList = toList( atomSerialNo );
+			}
+			return atomSerialNoList;
+		}
+		
+		/**
+		 * 
+		 * @return array with all the atom numbers in series
+		 */
+		public int[] getAtomSerNoArray(){
+			checkLoaded( COLUMN_SERIAL_NO, "Atom serial numbers" );
 			return atomSerialNo;
 		}
 		
@@ -138,7 +260,11 @@ public class PDBStructure implements ProteinStructure {
 		 * @return list with all the names for each atom i.e. C, H, O in series 
 		 */
 		public List<String> getAtomNames(){
-			return atomName;
+			checkLoaded( COLUMN_ATOM_NAME, "Atom names" );
+			if( atomNameList == null ){
+				atomNameList = SymbolTable.asList( atomName, atomCount );
+			}
+			return atomNameList;
 		}
 		
 		/**
@@ -146,6 +272,19 @@ public class PDBStructure implements ProteinStructure {
 		 * @return list containing the residues number that each atom belongs too
 		 */
 		public List<Integer> getResidueSeqNo(){
+			checkLoaded( COLUMN_RESIDUE_SEQ_NO, "Residue numbers" );
+			if( residueSeqNoList == null ){
+				residueSeqNoList = toList( residueSeqNo );
+			}
+			return residueSeqNoList;
+		}
+		
+		/**
+		 *  
+		 * @return array containing the residues number that each atom belongs too
+		 */
+		public int[] getResidueSeqNoArray(){
+			checkLoaded( COLUMN_RESIDUE_SEQ_NO, "Residue numbers" );
 			return residueSeqNo;
 		}
 		
@@ -154,150 +293,173 @@ public class PDBStructure implements ProteinStructure {
 		 * @return list containing the residues name (3 letter code) for each atom
 		 */
 		public List<String> getResidueName(){
-			return residueName;
+			checkLoaded( COLUMN_RESIDUE_NAME, "Residue names" );
+			if( residueNameList == null ){
+				residueNameList = SymbolTable.asList( residueName, atomCount );
+			}
+			return residueNameList;
 		}
 		
 		/**
 		 * @return the ID of the chain for each atom in the structure
 		 */
 		public List<String> getChainID(){
-			return chainID;
+			checkLoaded( COLUMN_CHAIN_ID, "Chain IDs" );
+			if( chainIDList == null ){
+				chainIDList = SymbolTable.asList( chainID, atomCount );
+			}
+			return chainIDList;
 		}
 		
 		/**
 		 * @return the element of each atom in the list
 		 */
 		public List<String> getAtomElement(){
-			return atomElement;
+			checkLoaded( COLUMN_ELEMENT, "Atom elements" );
+			if( atomElementList == null ){
+				atomElementList = SymbolTable.asList( atomElement, atomCount );
+			}
+			return atomElementList;
 		}
 		
 		// Method to load the structure given a filename
 		private void loadStructureData( File pdbFilename ) throws IOException{
 			
-			// BioJava structure to hold PDB structure data
-			// Attempt to lead structure data from file reference
-			Structure pdbStruct;
+			// Need to count the residue numbers in the chains and workout the actual amount of residues.
+			lastChain = null;
+			
+			// Store the highest residue in the structure
+			maxRes = 0;
+			
+			// The reader passes each atom record in the file back to addAtomRecord
 			try{
-				pdbStruct = loadStructure( pdbFilename );
+				reader.readAtoms( pdbFilename, this );
 			}catch(IOException ex){
 				throw ex;
 			}
 			
-			// Need to count the residue numbers in the chains and workout the actual amount of residues.
-			
-			// Use a BioJava iterator to cycle through all the atom groups in the extracted data
-			AtomIterator atomIt = new AtomIterator( pdbStruct );
+			// Get the highest residue number found in the list
+			maximumResidueNo = maxRes;
+		}
+		
+		// Called by the PDBReader for each atom record read, atoms belonging to waters are skipped
+		@Override
+		public void addAtomRecord( double x, double y, double z, int serialNo, String name, String element, 
+				String resName, int resSeqNo, String chain ){
 			
-			String lastChain = atomIt.getCurrentChain().getChainID();
+			if( resName.equals("HOH") ){
+				return;
+			}
 			
-			// Get and store the chain ID for the first chain
-			if( atomIt.getCurrentChain() != null ){
-				chains.add( lastChain );
+			// Get and store the chain ID and first residue number of the first chain
+			boolean readChain = ( columns & COLUMN_CHAIN_ID ) != 0;
+			if( readChain && ( lastChain == null ) ){
+				chains.add( chain );
+				chainStart.add( resSeqNo );
+				lastChain = chain;
 			}
 			
-			// Get and store the first residue number for the first chain
-			ResidueNumber lastResNo = atomIt.getCurrentChain().getAtomGroup(0).getResidueNumber();
-			chainStart.add( lastResNo.getSeqNum() );
+			// Add the coordinates, the serial number for this atom ( every atom has one, usually occur in sequence )
+			// and the sequence number of the residue to the primitive arrays.  Residue numbers do not necessarily 
+			// always start from 0 and can be non-consecutive because of indels
+			addAtom( x, y, z, serialNo, resSeqNo );
 			
-			int aminoCount = 1;
-			// Store the highest residue in the structure
-			int maxRes = 0;
+			// Store the codes of the atom name, element type, name of the residue this atom belongs too and
+			// the chain ID of the current atom
+			int atom = atomCount - 1;
+			if( atomName != null ){
+				atomName[atom] = SymbolTable.encode( name );
+			}
+			if( atomElement != null ){
+				atomElement[atom] = SymbolTable.encode( element );
+			}
+			if( residueName != null ){
+				residueName[atom] = SymbolTable.encode( resName );
+			}
+			if( readChain ){
+				chainID[atom] = SymbolTable.encode( chain );
+			}
 			
-			while( atomIt.hasNext() ){
-				
-				Atom atom = atomIt.next();
+			if( readChain && !chain.equals( lastChain ) ){
+				// Add the new chain ID to the list
+				chains.add( chain );
 				
-				if( !atom.getGroup().getPDBName().equals("HOH") ){
+				// Add the first residue number of the chain
+				chainStart.add( resSeqNo );
 				
-					// Add XYZ array to a list
-					atomXYZ.add( atom.getCoords() );
-					
-					// Retrieve the serial number for this atom ( every atom has one, usually occur in sequence )
-					atomSerialNo.add( atom.getPDBserial() );
-					
-					// Retrieve the atom name
-					atomName.add( atom.getName() );
-					
-					// Retrieve the element type of this atom
-					ElementType elemType;
-					elemType = atom.getElement().getElementType();
-					atomElement.add( elemType.name() );
-					
-					// Add sequence number to index of current atom
-					// These do not necessarily always start from 0 and can be non-consecutive because of indels
-					ResidueNumber thisResNo = atom.getGroup().getResidueNumber();
-					residueSeqNo.add( thisResNo.getSeqNum() );
-					
-					// Retrieve the name of the residue this atom belongs too
-					residueName.add( atom.getGroup().getPDBName() );
-					
-					// Add 3 letter aaSeq to list  
-					aaSeq.add( atom.getGroup().getPDBName() );
-					
-					// Get the chain ID of the current atom 
-					String thisChain = atom.getGroup().getChainId();
-					chainID.add( thisChain );
-					
-					if( !thisChain.equals( lastChain ) ){
-						// Add the new chain ID to the list
-						chains.add( thisChain );
-						
-						// Add the first residue number of the chain
-						chainStart.add( thisResNo.getSeqNum() );
-						
-						// Store this chain so that the comparison can be made for the next chain change
-						lastChain = thisChain;
-						
-						// reset the residue counter for the next chain 
-						aminoCount = 1;
-						
-					}
-					
-					// If the number of residues counted for this chain is larger than the largest counted
-					// Also stop HOH being counted, some PDB's may have these
-					if( ( thisResNo.getSeqNum() > maxRes ) && (!atom.getGroup().getPDBName().equals("HOH") ) ){
-						maxRes = thisResNo.getSeqNum();
-					}
-					
-					// Detect a change from one amino acid to the next and count how many changes happen over the whole list of atoms
-					if( !lastResNo.equals( atom.getGroup().getResidueNumber() )  ){
-						
-						// Set the last residue to this one in order to be able to detect the next residue change
-						lastResNo = thisResNo;
-						
-						// Increment the amino counter
-						aminoCount++;
-					}
-				}
+				// Store this chain so that the comparison can be made for the next chain change
+				lastChain = chain;
 			}
 			
-			// Store the number of atoms counted
-			atomCount = atomSerialNo.size();
-			
-			// Get the highest residue number found in the list
-			maximumResidueNo = maxRes;
+			// If the number of residues counted for this chain is larger than the largest counted
+			if( resSeqNo > maxRes ){
+				maxRes = resSeqNo;
+			}
 		}
 		
-		// Method to read the actual PDB file data.
-		private Structure loadStructure( File pdbFileName ) throws IOException{
-			
-			Structure structureData = null;
+		// Append the coordinates, serial number and residue number of an atom, growing the arrays, including the name
+		// code arrays, if they are full
+		private void addAtom( double x, double y, double z, int serialNo, int resSeqNo ){
 			
-			try{
-				// Create a PDBreader to read in the atom records
-				PDBFileReader pdbReader = new PDBFileReader();
+			if( atomCount == capacity ){
+				allocate( atomCount * 2 );
+			}
 			
-				// Read in the structural data
-				structureData = pdbReader.getStructure( pdbFileName );
-					
-				}catch( IOException ex ){
-					// Throws exception on bad header which conformers
-					// this can be ignored though execution will continue. The stack trace gets called within
-					// the pdb_HEADER_Handler method inside BIoJava PDBFileParser.
-					throw ex;
-				}
+			if( atomX != null ){
+				atomX[atomCount] = x;
+				atomY[atomCount] = y;
+				atomZ[atomCount] = z;
+			}
+			if( atomSerialNo != null ){
+				atomSerialNo[atomCount] = serialNo;
+			}
+			if( residueSeqNo != null ){
+				residueSeqNo[atomCount] = resSeqNo;
+			}
 			
-			return structureData;
+			// Track the number of atoms counted
+			atomCount++;
+		}
+		
+		// Cut the primitive arrays down to the number of atoms loaded so they hold exactly one entry per atom
+		private void trimToAtomCount(){
+			allocate( atomCount );
+		}
+		
+		// Create or resize the arrays of the columns being read, keeping the atoms already read
+		private void allocate( int size ){
+			if( ( columns & COLUMN_XYZ ) != 0 ){
+				atomX = ( atomX == null ) ? new double[size] : Arrays.copyOf( atomX, size );
+				atomY = ( atomY == null ) ? new double[size] : Arrays.copyOf( atomY, size );
+				atomZ = ( atomZ == null ) ? new double[size] : Arrays.copyOf( atomZ, size );
+			}
+			if( ( columns & COLUMN_SERIAL_NO ) != 0 ){
+				atomSerialNo = ( atomSerialNo == null ) ? new int[size] : Arrays.copyOf( atomSerialNo, size );
+			}
+			if( ( columns & COLUMN_RESIDUE_SEQ_NO ) != 0 ){
+				residueSeqNo = ( residueSeqNo == null ) ? new int[size] : Arrays.copyOf( residueSeqNo, size );
+			}
+			atomName = allocate( atomName, COLUMN_ATOM_NAME, size );
+			residueName = allocate( residueName, COLUMN_RESIDUE_NAME, size );
+			chainID = allocate( chainID, COLUMN_CHAIN_ID, size );
+			atomElement = allocate( atomElement, COLUMN_ELEMENT, size );
+			capacity = size;
+		}
+		
+		private short[] allocate( short[] codes, int column, int size ){
+			if( ( columns & column ) == 0 ){
+				return null;
+			}
+			return ( codes == null ) ? new short[size] : Arrays.copyOf( codes, size );
+		}
+		
+		// Box the values of a primitive array into a list
+		private static List<Integer> toList( int[] values ){
+			List<Integer> list = new ArrayList<Integer>( values.length );
+			for( int value : values ){
+				list.add( value );
+			}
+			return list;
 		}
 		
 		// Check that the filename passed is readable
@@ -318,50 +480,4 @@ public class PDBStructure implements ProteinStructure {
 			// Return name of pdb file ready to be read
 			return pdbFilename;
 		}
-		
-		// This method is supposed to be a work around for the Exception that is thrown within the BioJava PDBReader function.
-		// It loads a structure, copies the content to a temporary file, then delete the header and passes back the temporary file to be loaded
-		// by the PDBReader, however the temporary file never gets deleted or cannot be deleted because the PDBReader function keeps it open,
-		// and when a file is open it cannot be closed or deleted outside of the function that opened it.  Have kept this function in just in case  
-		// someone in the future knows how to fix it.
-		
-		private File trimHeader(String pdbFileName) throws IOException{
-			
-			File tempPDB = null;
-			PrintWriter outStream = null;
-			BufferedReader inStream = null;
-			
-			try{
-				// Create a temporary PDB file
-				tempPDB = File.createTempFile("tempPDBfile", ".pdb");
-			
-				// Open the file ready for writing
-				outStream = new PrintWriter( new BufferedWriter( new FileWriter( tempPDB ) ) );
-				
-				// Open the input PDB file
-				inStream = new BufferedReader( new FileReader( pdbFileName ) );
-				
-				// Read the contents, but skips header data, and write it to the output buffer
-				String line;
-				line = inStream.readLine();
-				
-				while( line != null ){
-					if(!line.contains("HEADER")){
-						outStream.println(line + "\n");
-					}
-					line = inStream.readLine();
-				}
-				
-				// Copy output buffer to temporary file
-				outStream.flush();
-				
-			}catch( IOException ex ){
-				throw ex;
-			}finally{
-				inStream.close();
-				outStream.close();
-			}
-			
-			return tempPDB;
-		}
 }
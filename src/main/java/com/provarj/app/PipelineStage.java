@@ -0,0 +1,136 @@
+package com.provar.app;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One stage of the pocket extraction pipeline in the PocketExtractor.  The threads of a stage take each structure from
+// the queue before the stage, work on it and put it on the queue after the stage.  The time the threads spend
+// working, waiting for a structure to work on and waiting for room to pass one on is added up for the whole run, so
+// the stage holding the others up can be found: it is the one that is busy while the stages around it wait.
+public class PipelineStage {
+
+	// Names of the stages
+	public static final String READ = "read";			// Read the files of each structure into memory
+	public static final String PARSE = "parse";			// Parse the atom records into structures
+	public static final String SEARCH = "search";		// Find the pocket lining atoms and residues
+	public static final String TOTAL = "total";			// Add the results to the totals in structure order
+
+	private final String name;
+	private final int noOfThreads;
+
+	// Times in nanoseconds, summed over the threads of the stage
+	private final AtomicLong busyTime = new AtomicLong();
+	private final AtomicLong inputWaitTime = new AtomicLong();
+	private final AtomicLong outputWaitTime = new AtomicLong();
+
+	/**
+	 *
+	 * @param name name of the stage
+	 * @param noOfThreads number of threads working in the stage
+	 */
+	PipelineStage( String name, int noOfThreads ){
+		this.name = name;
+		this.noOfThreads = noOfThreads;
+	}
+
+	/**
+	 *
+	 * @return name of the stage
+	 */
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 *
+	 * @return number of threads working in the stage
+	 */
+	public int getThreads(){
+		return noOfThreads;
+	}
+
+	/**
+	 *
+	 * @return milliseconds spent working, summed over the threads of the stage
+	 */
+	public long getBusyTime(){
+		return busyTime.get() / 1000000;
+	}
+
+	/**
+	 *
+	 * @return milliseconds spent waiting for a structure to work on, summed over the threads of the stage
+	 */
+	public long getInputWaitTime(){
+		return inputWaitTime.get() / 1000000;
+	}
+
+	/**
+	 *
+	 * @return milliseconds spent waiting for room to pass a structure on, summed over the threads of the stage
+	 */
+	public long getOutputWaitTime(){
+		return outputWaitTime.get() / 1000000;
+	}
+
+	/**
+	 *
+	 * @return milliseconds spent waiting for the stages before or after, summed over the threads of the stage
+	 */
+	public long getIdleTime(){
+		return getInputWaitTime() + getOutputWaitTime();
+	}
+
+	/**
+	 *
+	 * @param start System.nanoTime when the work started
+	 */
+	void addBusyTime( long start ){
+		busyTime.addAndGet( System.nanoTime() - start );
+	}
+
+	/**
+	 *
+	 * @param start System.nanoTime when the wait started
+	 */
+	void addInputWaitTime( long start ){
+		inputWaitTime.addAndGet( System.nanoTime() - start );
+	}
+
+	/**
+	 *
+	 * @param queue queue before the stage
+	 * @return next structure on the queue, waiting for one if it is empty
+	 * @throws InterruptedException
+	 */
+	<T> T take( BlockingQueue<T> queue ) throws InterruptedException{
+		long start = System.nanoTime();
+		try{
+			return queue.take();
+		}finally{
+			addInputWaitTime( start );
+		}
+	}
+
+	/**
+	 *
+	 * @param queue queue after the stage
+	 * @param item structure to pass on, waiting for room if the queue is full
+	 * @throws InterruptedException
+	 */
+	<T> void put( BlockingQueue<T> queue, T item ) throws InterruptedException{
+		long start = System.nanoTime();
+		try{
+			queue.put( item );
+		}finally{
+			outputWaitTime.addAndGet( System.nanoTime() - start );
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "Stage " + name + " (" + noOfThreads + ( noOfThreads == 1 ? " thread" : " threads" ) + "): busy " +
+				getBusyTime() + " ms, waiting for input " + getInputWaitTime() + " ms, waiting for output " +
+				getOutputWaitTime() + " ms";
+	}
+}
@@ -0,0 +1,196 @@
+package com.provar.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Checkpoint of a PocketExtractor part way through the structures, so a run that stops can carry on from where it got
+// to rather than starting again.  The totals are added in structure order, so the structures processed are always the
+// first ones and only their number needs to be kept alongside the totals.  Each checkpoint is written to a temporary
+// file that only replaces the last one once complete, so a run stopping while it is written still leaves the last
+// checkpoint behind.  A checkpoint that does not match the run, or whose CRC does not match, is ignored.
+//
+// Layout, big endian: magic, version, run signature, structure count, program count, the radii, atom count, residue
+// count, structures processed, then the atom, residue and residue average totals of each program and radius, and CRC.
+public class PocketCheckpoint {
+
+	private static final int MAGIC = 0x50564A4B;		// "PVJK"
+	private static final int VERSION = 1;
+
+	private final File file;
+	private final long signature;						// Identifies the conformer and pocket files of the run
+	private final int noOfStructures;
+	private final double[] pocketRadii;
+	private final int noOfAtoms;
+	private final int noOfRes;
+
+	/**
+	 *
+	 * @param file file to hold the checkpoint
+	 * @param signature value identifying the structures and pocket files of the run
+	 * @param noOfStructures number of structures in the run
+	 * @param pocketRadii radii searched in the run
+	 * @param noOfAtoms number of atoms in the reference structure
+	 * @param noOfRes number of residues in the reference structure
+	 */
+	PocketCheckpoint( File file, long signature, int noOfStructures, double[] pocketRadii, int noOfAtoms, int noOfRes ){
+		this.file = file;
+		this.signature = signature;
+		this.noOfStructures = noOfStructures;
+		this.pocketRadii = pocketRadii;
+		this.noOfAtoms = noOfAtoms;
+		this.noOfRes = noOfRes;
+	}
+
+	/**
+	 *
+	 * @return file holding the checkpoint
+	 */
+	public File getFile(){
+		return file;
+	}
+
+	/**
+	 * Write the totals of the structures processed so far, replacing the last checkpoint
+	 *
+	 * @param processed number of structures processed, from the first
+	 * @param atomTotal atom totals of each program and radius
+	 * @param aminoTotal residue totals of each program and radius
+	 * @param aminoAvgTotal residue average totals of each program and radius
+	 * @throws IOException
+	 */
+	void write( int processed, int[][][] atomTotal, int[][][] aminoTotal, double[][][] aminoAvgTotal ) throws IOException{
+
+		File tempFile = new File( file.getPath() + ".tmp" );
+		CRC32 crc = new CRC32();
+		DataOutputStream outStream = new DataOutputStream( new BufferedOutputStream(
+				new CheckedOutputStream( new FileOutputStream( tempFile ), crc ), 64 * 1024 ) );
+		try{
+			outStream.writeInt( MAGIC );
+			outStream.writeInt( VERSION );
+			outStream.writeLong( signature );
+			outStream.writeInt( noOfStructures );
+			outStream.writeInt( atomTotal.length );
+			outStream.writeInt( pocketRadii.length );
+			for( double radius : pocketRadii ){
+				outStream.writeDouble( radius );
+			}
+			outStream.writeInt( noOfAtoms );
+			outStream.writeInt( noOfRes );
+			outStream.writeInt( processed );
+
+			for( int p = 0; p < atomTotal.length; p++ ){
+				for( int r = 0; r < pocketRadii.length; r++ ){
+					for( int total : atomTotal[p][r] ){
+						outStream.writeInt( total );
+					}
+					for( int total : aminoTotal[p][r] ){
+						outStream.writeInt( total );
+					}
+					for( double total : aminoAvgTotal[p][r] ){
+						outStream.writeDouble( total );
+					}
+				}
+			}
+			outStream.flush();
+			outStream.writeLong( crc.getValue() );
+		}finally{
+			outStream.close();
+		}
+
+		if( file.exists() && !file.delete() ){
+			throw new IOException("Unable to replace checkpoint " + file );
+		}
+		if( !tempFile.renameTo( file ) ){
+			throw new IOException("Unable to write checkpoint " + file );
+		}
+	}
+
+	/**
+	 * Read the totals of the last checkpoint into the arrays given, which are left alone if there is no checkpoint for
+	 * this run
+	 *
+	 * @param atomTotal atom totals of each program and radius
+	 * @param aminoTotal residue totals of each program and radius
+	 * @param aminoAvgTotal residue average totals of each program and radius
+	 * @return number of structures processed, from the first, or 0 if there is no checkpoint for this run
+	 * @throws IOException
+	 */
+	int read( int[][][] atomTotal, int[][][] aminoTotal, double[][][] aminoAvgTotal ) throws IOException{
+
+		if( !file.isFile() ){
+			return 0;
+		}
+
+		// Read into new arrays so a damaged checkpoint leaves the totals as they were
+		int noOfProgs = atomTotal.length;
+		int[][][] atoms = new int[noOfProgs][pocketRadii.length][noOfAtoms];
+		int[][][] aminos = new int[noOfProgs][pocketRadii.length][noOfRes];
+		double[][][] aminoAvgs = new double[noOfProgs][pocketRadii.length][noOfRes];
+		int processed;
+
+		CRC32 crc = new CRC32();
+		DataInputStream inStream = new DataInputStream( new CheckedInputStream(
+				new BufferedInputStream( new FileInputStream( file ), 64 * 1024 ), crc ) );
+		try{
+			if( ( inStream.readInt() != MAGIC ) || ( inStream.readInt() != VERSION ) || ( inStream.readLong() != signature ) ||
+					( inStream.readInt() != noOfStructures ) || ( inStream.readInt() != noOfProgs ) ||
+					( inStream.readInt() != pocketRadii.length ) ){
+				return 0;
+			}
+			for( double radius : pocketRadii ){
+				if( inStream.readDouble() != radius ){
+					return 0;
+				}
+			}
+			if( ( inStream.readInt() != noOfAtoms ) || ( inStream.readInt() != noOfRes ) ){
+				return 0;
+			}
+			processed = inStream.readInt();
+			if( ( processed < 0 ) || ( processed > noOfStructures ) ){
+				return 0;
+			}
+
+			for( int p = 0; p < noOfProgs; p++ ){
+				for( int r = 0; r < pocketRadii.length; r++ ){
+					for( int i = 0; i < noOfAtoms; i++ ){
+						atoms[p][r][i] = inStream.readInt();
+					}
+					for( int i = 0; i < noOfRes; i++ ){
+						aminos[p][r][i] = inStream.readInt();
+					}
+					for( int i = 0; i < noOfRes; i++ ){
+						aminoAvgs[p][r][i] = inStream.readDouble();
+					}
+				}
+			}
+
+			long expected = crc.getValue();
+			if( inStream.readLong() != expected ){
+				return 0;
+			}
+		}catch( EOFException ex ){
+			return 0;
+		}finally{
+			inStream.close();
+		}
+
+		for( int p = 0; p < noOfProgs; p++ ){
+			for( int r = 0; r < pocketRadii.length; r++ ){
+				System.arraycopy( atoms[p][r], 0, atomTotal[p][r], 0, noOfAtoms );
+				System.arraycopy( aminos[p][r], 0, aminoTotal[p][r], 0, noOfRes );
+				System.arraycopy( aminoAvgs[p][r], 0, aminoAvgTotal[p][r], 0, noOfRes );
+			}
+		}
+		return processed;
+	}
+}
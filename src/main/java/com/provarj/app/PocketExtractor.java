@@ -2,66 +2,132 @@ package com.provar.app;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
 import org.biojava.bio.structure.StructureException;
 
 public class PocketExtractor implements Observable{
 	
-	// Store totals for all data from all processed structures
-	private List<Double> aminoTotal;
-	private List<Double> atomTotal;
-	private List<Double> aminoAvgTotal;
+	// Store totals for all data from all processed structures, one array for each pocket program and pocket radius.
+	// The totals are only added to by the total stage, one structure at a time, so plain arrays are enough.
+	private int[][][] aminoTotal;
+	private int[][][] atomTotal;
+	private double[][][] aminoAvgTotal;
 	
 	final protected Integer refStructAtomCount;
 	final protected Integer noOfRes;
 	
 	final protected PocketFinder pocketFinder;
-	final protected ArrayList<String> refStructs;
+	final protected StructureFileReader pdbReader;
+	final protected boolean sharedTopology;
+	final protected ProteinStructure refStruct;
+	final protected ConformerSource conformers;
 	final protected File refPdb;
+	final protected ProvarOptions options;
+	final protected int noOfThreads;				// Threads searching structures for pockets, each with its own pocket finder
 	
-	final double pocketRadius;
+	// Stages the structures were passed through, with the time spent in each
+	private List<PipelineStage> stages;
 	
-	boolean isDirect;
+	// Result buffers of structures that have been totalled, handed to the next structures searched.  There are never
+	// more than the structures let into the pipeline at once, so only that many are ever made.
+	private final ConcurrentLinkedQueue<PocketResults> freeResults = new ConcurrentLinkedQueue<PocketResults>();
+	
+	// True while the results of a structure are being added straight from the pocket finder and only some have been
+	private boolean partlyTotalled;
+	
+	final double[] pocketRadii;
+	
+	// Whether each pocket program has already predicted the pocket lining atoms
+	final boolean[] isDirect;
 
 	protected ArrayList<Observer> observers;
 	
-	PocketProgram pocketProg;
+	// Pocket prediction files of each pocket program, every program's pockets are found for a structure once it is read
+	final protected List<StructureSet> pocketStructures;
 	
-	final protected StructureSet pocketStructures;
+	// Checkpoint of the totals, null if the run is not checkpointed.  The structures before the first structure were
+	// totalled by an earlier run that stopped, and the checkpoint is written again once the interval has passed.
+	private PocketCheckpoint checkpoint;
+	private int firstStructure;
+	private int processed;
+	private long nextCheckpoint;
 	
 	/**
 	 * 
 	 * @param pocketStructs structure set containing all the pocket prediction data
-	 * @param refStructs list of all the reference structures
+	 * @param conformers source of all the reference structures
 	 * @param refPDB reference PDB file 
 	 * @param isDirect specify if pocket lining atoms have already been predicted
-	 * @param pocketRadius specify the distance the algorithm will search from each atom
+	 * @param pocketRadii specify the distances, in ascending order, the algorithm will search from each atom
+	 * @param options tuning options for the run
 	 * @param observer associate an observer to catch messages
 	 * @throws IOException
 	 */
 	PocketExtractor(StructureSet pocketStructs, 
-			ArrayList<String> refStructs, 
+			ConformerSource conformers, 
 			File refPDB, boolean isDirect, 
-			double pocketRadius, 
+			double[] pocketRadii, 
+			ProvarOptions options,
+			Observer observer) throws IOException{
+		this( Collections.singletonList( pocketStructs ), conformers, refPDB, new boolean[]{ isDirect }, pocketRadii, options, null, observer );
+	}
+	
+	/**
+	 * 
+	 * @param pocketStructs structure sets containing the pocket prediction data of each pocket program
+	 * @param conformers source of all the reference structures
+	 * @param refPDB reference PDB file 
+	 * @param isDirect specify for each pocket program if pocket lining atoms have already been predicted
+	 * @param pocketRadii specify the distances, in ascending order, the algorithm will search from each atom
+	 * @param options tuning options for the run
+	 * @param checkpointFile file to checkpoint the totals to, null to not checkpoint them
+	 * @param observer associate an observer to catch messages
+	 * @throws IOException
+	 */
+	PocketExtractor(List<StructureSet> pocketStructs, 
+			ConformerSource conformers, 
+			File refPDB, boolean[] isDirect, 
+			double[] pocketRadii, 
+			ProvarOptions options,
+			File checkpointFile,
 			Observer observer) throws IOException{
 		
 		// Store a copy of the parameters passed to the pocket extractor
-		this.refStructs = refStructs;
+		this.conformers = conformers;
 		this.refPdb = refPDB;
 		this.pocketStructures = pocketStructs;
 		this.isDirect = isDirect;
-		this.pocketRadius = pocketRadius;
+		this.pocketRadii = pocketRadii;
+		this.options = options;
+		noOfThreads = ( options.getThreads() == 0 ) ? Runtime.getRuntime().availableProcessors() : options.getThreads();
 		
 		// Create a pocket finder object, this will work out which atoms and residues are pocket lining
-		pocketFinder = new PocketFinder();
+		pocketFinder = new PocketFinder( options );
 		
-		// Retrieve the PDB data in the reference structure
-		ProteinStructure refStruct = null;
+		// Create the reader used to read every reference and pocket structure
+		pdbReader = PDBReaderFactory.CreateStructureFileReader( options.getPdbReader() );
+		
+		// Conformers with the same atoms as the reference structure only need their coordinates read
+		sharedTopology = options.isSharedTopology();
+		
+		// Retrieve the PDB data in the reference structure, only the columns the pocket finder uses are read
 		try{
-			refStruct = new PDBStructure( refPdb.toString() );
+			refStruct = new PDBStructure( refPdb.toString(), pdbReader, ProteinStructure.COLUMNS_POCKET_SEARCH );
 		}catch(IOException ex){
 			throw ex;
 		}
@@ -76,106 +142,589 @@ public class PocketExtractor implements Observable{
 		// Initialise the totals array with the number of atoms in the first structure
 		
 		// Pre-allocate space based on first reference structure, check that subsequent structures have the same number of atoms
-		atomTotal = new ArrayList<Double>( Collections.nCopies( refStructAtomCount, 0.0 ) );
-		
-		aminoTotal = new ArrayList<Double>( Collections.nCopies( noOfRes, 0.0) );
-	
-		aminoAvgTotal = new ArrayList<Double>( Collections.nCopies( noOfRes, 0.0) );
+		atomTotal = new int[pocketStructs.size()][pocketRadii.length][refStructAtomCount];
+		aminoTotal = new int[pocketStructs.size()][pocketRadii.length][noOfRes];
+		aminoAvgTotal = new double[pocketStructs.size()][pocketRadii.length][noOfRes];
 		
 		observers = new ArrayList<Observer>();
 		
 		if( observer != null ){
 			addObserver(observer);
 		}
+		
+		// Carry on from the last checkpoint of an earlier run that stopped, if asked to
+		if( ( checkpointFile != null ) && ( options.getCheckpointInterval() > 0 ) ){
+			checkpoint = new PocketCheckpoint( checkpointFile, getRunSignature(), conformers.getSize(), pocketRadii, refStructAtomCount, noOfRes );
+			if( options.isResume() ){
+				resumeFromCheckpoint();
+			}
+		}
+		
 		try{
 			extractPocketData();
 		}catch(IOException ex){
 			throw ex;
+		}finally{
+			// A conformer cache not finished by now never will be in this run, and one being read is closed until the next
+			if( conformers instanceof CachedConformerSource ){
+				( (CachedConformerSource)conformers ).close();
+			}
 		}
 	}
 	
 	private void extractPocketData() throws IOException{
 		
-		// For each file in the structure directory attempt to match up the file to the corresponding pocket structure directory.
-		for(int i = 0; i < refStructs.size(); i++){
+		stages = new ArrayList<PipelineStage>();
+		processed = firstStructure;
+		nextCheckpoint = System.nanoTime() + options.getCheckpointInterval() * 1000000000L;
+		
+		// Keep what has been totalled if a structure cannot be processed, so the run can be resumed once it is fixed
+		try{
+			if( options.getPipelineDepth() == 0 ){
+				extractInOrder();
+			}else{
+				extractPipelined();
+			}
+		}finally{
+			writeCheckpoint();
+		}
+		
+		// Show where the time went, the busiest stage is holding the others up
+		for( PipelineStage stage : stages ){
+			updateObservers( stage.toString() );
+		}
+	}
+	
+	// Read, parse, search and total each structure in turn on this thread, only compressed files are decompressed ahead
+	private void extractInOrder() throws IOException{
+		
+		PipelineStage parse = new PipelineStage( PipelineStage.PARSE, 1 );
+		PipelineStage search = new PipelineStage( PipelineStage.SEARCH, 1 );
+		PipelineStage total = new PipelineStage( PipelineStage.TOTAL, 1 );
+		stages.add( parse );
+		stages.add( search );
+		stages.add( total );
+		
+		try{
+			for(int i = firstStructure; i < conformers.getSize(); i++){
+				
+				// Start decompressing the next few compressed files while this structure is processed
+				prefetchFiles( i );
+				
+				StructureWork work = new StructureWork( i );
+				
+				long start = System.nanoTime();
+				parseStructure( work, pdbReader );
+				parse.addBusyTime( start );
+				
+				// The results are added to the totals straight from the pocket finder as each program is searched
+				start = System.nanoTime();
+				findPockets( work, pocketFinder, true );
+				search.addBusyTime( start );
+				
+				start = System.nanoTime();
+				addResult( work );
+				checkpointIfDue();
+				total.addBusyTime( start );
+				
+				// Files of the structure the reader did not take from the decompressor are not held any longer
+				cancelPrefetch( i, i );
+			}
+		}finally{
+			// Drop the files decompressed ahead of a structure that stopped the run
+			cancelPrefetch( processed, processed + Decompressor.getLookahead() );
+		}
+	}
+	
+	// Pass the structures through the read, parse and search stages on their own threads, each stage handing them
+	// on through a bounded queue so a stage that gets ahead waits for the next.  The results are added to the totals
+	// on this thread in structure order, so the totals and messages are the same as processing them in turn.
+	private void extractPipelined() throws IOException{
+		
+		final int noOfStructures = conformers.getSize();
+		int depth = options.getPipelineDepth();
+		
+		final PipelineStage read = new PipelineStage( PipelineStage.READ, options.getReadThreads() );
+		final PipelineStage parse = new PipelineStage( PipelineStage.PARSE, options.getParseThreads() );
+		final PipelineStage search = new PipelineStage( PipelineStage.SEARCH, noOfThreads );
+		PipelineStage total = new PipelineStage( PipelineStage.TOTAL, 1 );
+		stages.add( read );
+		stages.add( parse );
+		stages.add( search );
+		stages.add( total );
+		
+		final BlockingQueue<StructureWork> readQueue = new ArrayBlockingQueue<StructureWork>( depth );
+		final BlockingQueue<StructureWork> parseQueue = new ArrayBlockingQueue<StructureWork>( depth );
+		final BlockingQueue<StructureWork> searchQueue = new ArrayBlockingQueue<StructureWork>( depth );
+		
+		// Structures finishing out of order wait to be totalled, so only so many are let into the pipeline ahead
+		// of the next one to total: enough to fill every queue and thread
+		final Semaphore window = new Semaphore( 3 * depth + read.getThreads() + parse.getThreads() + search.getThreads() );
+		final AtomicInteger nextToRead = new AtomicInteger( firstStructure );
+		
+		ExecutorService pool = Executors.newFixedThreadPool( read.getThreads() + parse.getThreads() + search.getThreads() );
+		try{
+			for( int t = 0; t < read.getThreads(); t++ ){
+				pool.execute( new Runnable(){
+					@Override
+					public void run(){
+						try{
+							while( true ){
+								long start = System.nanoTime();
+								window.acquire();
+								read.addInputWaitTime( start );
+								
+								int structNo = nextToRead.getAndIncrement();
+								if( structNo >= noOfStructures ){
+									return;
+								}
+								
+								StructureWork work = new StructureWork( structNo );
+								start = System.nanoTime();
+								try{
+									readFiles( work );
+								}catch( Throwable ex ){
+									work.error = ex;
+								}
+								read.addBusyTime( start );
+								read.put( readQueue, work );
+							}
+						}catch( InterruptedException ex ){
+							// The run is over
+						}
+					}
+				});
+			}
 			
-			// Arrays to hold which atoms and residues are pocket lining and the average atoms per residue for this structure
-			List<Boolean> aminoCount;
-			List<Boolean> atomCount;
-			List<Double> aminoAverage;
+			for( int t = 0; t < parse.getThreads(); t++ ){
+				final StructureFileReader reader = ( t == 0 ) ? pdbReader :
+					PDBReaderFactory.CreateStructureFileReader( options.getPdbReader() );
+				pool.execute( new Runnable(){
+					@Override
+					public void run(){
+						try{
+							while( true ){
+								StructureWork work = parse.take( readQueue );
+								long start = System.nanoTime();
+								if( work.error == null ){
+									try{
+										parseStructure( work, reader );
+									}catch( Throwable ex ){
+										work.error = ex;
+									}
+								}
+								parse.addBusyTime( start );
+								parse.put( parseQueue, work );
+							}
+						}catch( InterruptedException ex ){
+							// The run is over
+						}
+					}
+				});
+			}
 			
-			// Structure to hold the PDB data 
-			ProteinStructure pocketStruct;
-			ProteinStructure pdbStruct = null;
+			for( int t = 0; t < search.getThreads(); t++ ){
+				final PocketFinder finder = ( t == 0 ) ? pocketFinder : new PocketFinder( options );
+				pool.execute( new Runnable(){
+					@Override
+					public void run(){
+						try{
+							while( true ){
+								StructureWork work = search.take( parseQueue );
+								long start = System.nanoTime();
+								if( work.error == null ){
+									try{
+										findPockets( work, finder, false );
+									}catch( Throwable ex ){
+										work.error = ex;
+									}
+								}
+								search.addBusyTime( start );
+								search.put( searchQueue, work );
+							}
+						}catch( InterruptedException ex ){
+							// The run is over
+						}
+					}
+				});
+			}
 			
-			// Load in a PDB structure for the reference and pocket predictions
-			try{
-				pdbStruct = new PDBStructure( refStructs.get(i) );
+			// Total the structures in order, holding any that arrive before the next one
+			Map<Integer, StructureWork> held = new HashMap<Integer, StructureWork>();
+			for(int i = firstStructure; i < noOfStructures; i++){
+				StructureWork work;
+				while( ( work = held.remove( i ) ) == null ){
+					StructureWork arrived = total.take( searchQueue );
+					held.put( arrived.structNo, arrived );
+				}
 				
-				if( !pocketStructures.isMultiPart() ){
-					pocketStruct = new PDBStructure( pocketStructures.getStructure(i) );
+				long start = System.nanoTime();
+				if( work.error != null ){
+					rethrow( work.error );
+				}
+				addResult( work );
+				checkpointIfDue();
+				total.addBusyTime( start );
+				window.release();
+			}
+		}catch( InterruptedException ex ){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted processing structures");
+		}finally{
+			pool.shutdownNow();
+		}
+	}
+	
+	// Pass on a problem met by one of the stage threads
+	private static void rethrow( Throwable error ) throws IOException{
+		if( error instanceof IOException ){
+			throw (IOException)error;
+		}
+		if( error instanceof RuntimeException ){
+			throw (RuntimeException)error;
+		}
+		if( error instanceof Error ){
+			throw (Error)error;
+		}
+		throw new IOException("Unable to process structure: " + error );
+	}
+	
+	// Read the files of a structure into memory, decompressing any that are compressed.  Files the reader would read
+	// itself anyway, and files that do not exist, are left for the parse stage.
+	private void readFiles( StructureWork work ) throws IOException{
+		
+		for( File file : getStructureFiles( work.structNo ) ){
+			if( file.isFile() && pdbReader.canReadBytes( file ) ){
+				work.fileBytes.put( file, Decompressor.isCompressed( file ) ? Decompressor.read( file ) : readFileBytes( file ) );
+			}
+		}
+	}
+	
+	private static byte[] readFileBytes( File file ) throws IOException{
+		
+		RandomAccessFile inFile = new RandomAccessFile( file, "r" );
+		try{
+			if( inFile.length() > Integer.MAX_VALUE ){
+				throw new IOException("Structure file " + file + " is too large to read");
+			}
+			byte[] bytes = new byte[(int)inFile.length()];
+			inFile.readFully( bytes );
+			return bytes;
+		}finally{
+			inFile.close();
+		}
+	}
+	
+	// Conformer and pocket prediction files of a structure
+	private List<File> getStructureFiles( int structNo ){
+		
+		List<File> files = new ArrayList<File>( conformers.getConformerFiles( structNo ) );
+		for( StructureSet pocketSet : pocketStructures ){
+			if( structNo < pocketSet.getSize() ){
+				files.addAll( getPocketFiles( pocketSet, structNo ) );
+			}
+		}
+		return files;
+	}
+	
+	// Pocket prediction files of a structure, the parts of a multi-part prediction or the one file
+	private static List<File> getPocketFiles( StructureSet pocketSet, int structNo ){
+		
+		List<File> files = new ArrayList<File>();
+		if( !pocketSet.isMultiPart() ){
+			files.add( new File( pocketSet.getStructure( structNo ) ) );
+		}else{
+			for( String part : pocketSet.getStructureMultiFiles( structNo ) ){
+				files.add( new File( part ) );
+			}
+		}
+		return files;
+	}
+	
+	// Load the conformer and pocket structures, from the file contents already read if there are any
+	private void parseStructure( StructureWork work, StructureFileReader pdbReader ) throws IOException{
+		
+		int i = work.structNo;
+		for( Map.Entry<File, byte[]> file : work.fileBytes.entrySet() ){
+			pdbReader.addFileBytes( file.getKey(), file.getValue() );
+		}
+		work.fileBytes = null;
+		
+		// Load in a PDB structure for the reference and pocket predictions
+		try{
+			if( sharedTopology ){
+				// Read just the coordinates, falling back to reading the whole structure if the atoms differ
+				ConformerStructure conformer = conformers.getConformer( i, refStruct, pdbReader );
+				work.matchesReference = conformer.matchesReference();
+				if( work.matchesReference ){
+					work.pdbStruct = conformer;
 				}else{
-					pocketStruct = new PDBStructure( pocketStructures.getStructureMultiFiles(i) );
+					work.pdbStruct = conformers.getStructure( i, pdbReader, ProteinStructure.COLUMNS_POCKET_SEARCH );
 				}
-			}catch(IOException ex){
-				throw ex;
+			}else{
+				work.pdbStruct = conformers.getStructure( i, pdbReader, ProteinStructure.COLUMNS_POCKET_SEARCH );
+				work.matchesReference = refStructAtomCount.equals( work.pdbStruct.getAtomCount() );
 			}
 			
-			// Lookout for reference structures that have an atom count that deviates from the original structure
-			if( !refStructAtomCount.equals( pdbStruct.getAtomCount() ) ){
-				updateObservers("Structure " + refStructs.get(i) + " has a different numbers of atoms to the reference structure" );
-			}else{
-				updateObservers("Reading structure " + refStructs.get(i) );
-				updateObservers("Reading pocket structure " + pocketStructures.getStructure(i) );
+			// Pocket files only need the columns the pocket finder uses for them, the serial numbers of the pocket
+			// atoms for direct predictions, otherwise the probe coordinates
+			work.pocketStructs = new ProteinStructure[pocketStructures.size()];
+			for( int p = 0; p < pocketStructures.size(); p++ ){
+				StructureSet pocketSet = pocketStructures.get(p);
+				int pocketColumns = isDirect[p] ? ProteinStructure.COLUMN_SERIAL_NO : ProteinStructure.COLUMN_XYZ;
+				if( !pocketSet.isMultiPart() ){
+					work.pocketStructs[p] = new PDBStructure( pocketSet.getStructure(i), pdbReader, pocketColumns );
+				}else{
+					work.pocketStructs[p] = new PDBStructure( pocketSet.getStructureMultiFiles(i), pdbReader, pocketColumns );
+				}
 			}
+		}finally{
+			pdbReader.clearFileBytes();
+		}
+	}
+	
+	// Find the pockets of one structure for each pocket program, keeping the messages until they are added in order.
+	// The results are either added to the totals now, when the structures are processed in turn, or kept in a result
+	// buffer until they are added in order.
+	private void findPockets( StructureWork work, PocketFinder pocketFinder, boolean totalNow ){
+		
+		int i = work.structNo;
+		ProteinStructure pdbStruct = work.pdbStruct;
+		
+		// Lookout for reference structures that have an atom count that deviates from the original structure
+		if( !work.matchesReference ){
+			work.messages.add("Structure " + conformers.getName(i) + " has a different numbers of atoms to the reference structure" );
+		}else{
+			work.messages.add("Reading structure " + conformers.getName(i) );
+		}
+		
+		int noOfProgs = pocketStructures.size();
+		if( !totalNow ){
+			work.results = freeResults.poll();
+			if( work.results == null ){
+				work.results = new PocketResults( noOfProgs, pocketRadii.length );
+			}
+		}
+		
+		for( int p = 0; p < noOfProgs; p++ ){
 			
-			updateObservers("Testing pocket-lining atoms and residues...");
+			ProteinStructure pocketStruct = work.pocketStructs[p];
+			if( work.matchesReference ){
+				work.messages.add("Reading pocket structure " + pocketStructures.get(p).getStructure(i) );
+			}
+			
+			work.messages.add("Testing pocket-lining atoms and residues...");
 			
 			// Find pocket data for this structure
 			try{
-				pocketFinder.FindPockets(pdbStruct, pocketStruct, pocketRadius, isDirect);
+				pocketFinder.FindPockets(pdbStruct, pocketStruct, pocketRadii, isDirect[p]);
+				
+				if( !isDirect[p] ){
+					work.messages.add("Searched from the " + pocketFinder.getSearchDirection() + " (" + pocketStruct.getAtomCount() + 
+							" probes, " + pdbStruct.getAtomCount() + " atoms)" );
+				}
 			}catch(StructureException ex){
-				updateObservers("Unable to process structure: " + ex.getMessage() );
+				work.messages.add("Unable to process structure: " + ex.getMessage() );
 			}
-			updateObservers("OK");
-			updateObservers("=======================================================");
+			work.messages.add("OK");
 			
-			// Retrieve for this structure which atoms are pocket lining, which residues are pocket lining, and
-			// the average atoms per residue for each atom.
-			aminoCount = pocketFinder.getPocketLiningAminoList();
-			
-			atomCount = pocketFinder.getPocketLiningAtomList();
-			
-			aminoAverage = pocketFinder.getPocketLiningAminoAverageList();
-			
-			// Counts per atom, amino and amino average.
-			
-			// Total up how many times each atoms is detected as being pocket lining
-			for( int atomIndex = 0; atomIndex < atomCount.size(); atomIndex++){
-				if( atomCount.get( atomIndex ) == true ){ 
-					atomTotal.set( atomIndex, atomTotal.get( atomIndex ) + 1 );
+			// For each radius, total or keep which atoms and residues are pocket lining and the average atoms per residue
+			int noOfAtoms = pocketFinder.getAtomCount();
+			int noOfAminos = pocketFinder.getResidueCount();
+			for( int r = 0; r < pocketRadii.length; r++ ){
+				boolean[] atomCount = pocketFinder.getPocketLiningAtomArray( r );
+				boolean[] aminoCount = pocketFinder.getPocketLiningAminoArray( r );
+				double[] aminoAverage = pocketFinder.getPocketLiningAminoAverageArray( r );
+				if( totalNow ){
+					partlyTotalled = true;
+					addToTotals( p, r, atomCount, noOfAtoms, aminoCount, aminoAverage, noOfAminos );
+				}else{
+					work.results.set( p, r, atomCount, noOfAtoms, aminoCount, aminoAverage, noOfAminos );
 				}
 			}
-			
-			// Total up how many times each residue is detected as being pocket lining
-			for( int aminoIndex = 0; aminoIndex < aminoCount.size(); aminoIndex++ ){
-				if( aminoCount.get( aminoIndex ) == true ){
-					aminoTotal.set( aminoIndex, aminoTotal.get( aminoIndex ) + 1 );
-				}	
+		}
+		work.messages.add("=======================================================");
+		
+		// The structures are no longer needed once searched
+		work.pdbStruct = null;
+		work.pocketStructs = null;
+	}
+	
+	// Pass on the messages of a structure and total up its results for each radius, if they have not been already,
+	// handing its result buffer on to the next structure searched
+	private void addResult( StructureWork work ){
+		
+		for( String msg : work.messages ){
+			updateObservers( msg );
+		}
+		
+		PocketResults results = work.results;
+		if( results != null ){
+			for( int p = 0; p < pocketStructures.size(); p++ ){
+				for( int r = 0; r < pocketRadii.length; r++ ){
+					addToTotals( p, r, results.atomCount[p][r], results.noOfAtoms[p], results.aminoCount[p][r],
+							results.aminoAverage[p][r], results.noOfRes[p] );
+				}
 			}
-			
-			// Total up the (atoms per residue ) averages for each residue 
-			for( int aminoAvgIndex = 0; aminoAvgIndex < aminoAverage.size() - 1; aminoAvgIndex++ ){
-				aminoAvgTotal.set(aminoAvgIndex, aminoAvgTotal.get(aminoAvgIndex) + aminoAverage.get(aminoAvgIndex));
+			work.results = null;
+			freeResults.add( results );
+		}
+		partlyTotalled = false;
+		processed = work.structNo + 1;
+	}
+	
+	// Load the totals of the last checkpoint and start from the structure after the last one it holds
+	private void resumeFromCheckpoint(){
+		
+		try{
+			firstStructure = checkpoint.read( atomTotal, aminoTotal, aminoAvgTotal );
+		}catch( IOException ex ){
+			firstStructure = 0;
+		}
+		
+		if( firstStructure == 0 ){
+			if( !checkpoint.getFile().exists() ){
+				updateObservers("Checkpoint " + checkpoint.getFile() + " not found, starting from the first structure" );
+			}else{
+				updateObservers("Checkpoint " + checkpoint.getFile() + " does not match this run, starting from the first structure" );
 			}
+			return;
 		}
+		updateObservers("Resuming from " + checkpoint.getFile() + ": " + firstStructure + " of " + conformers.getSize() + " structures already processed" );
+		
+		// A conformer cache can only be written from the first conformer
+		if( conformers instanceof CachedConformerSource ){
+			( (CachedConformerSource)conformers ).skipConformers( firstStructure );
+		}
+	}
+	
+	// Write a checkpoint once the interval since the last one has passed, waiting longer if writing them takes more
+	// than a fiftieth of the time between them so checkpoints never slow the run down by more than a couple of percent
+	private void checkpointIfDue(){
+		
+		if( ( checkpoint == null ) || ( System.nanoTime() < nextCheckpoint ) ){
+			return;
+		}
+		
+		long start = System.nanoTime();
+		writeCheckpoint();
+		long now = System.nanoTime();
+		nextCheckpoint = now + Math.max( options.getCheckpointInterval() * 1000000000L, 50 * ( now - start ) );
 	}
+	
+	// Write the totals of the structures processed so far, a checkpoint that cannot be written does not stop the run.
+	// Totals holding only some of the results of a structure that stopped the run are not written, as the structure
+	// would be added again when the run is resumed, so the last checkpoint is kept instead.
+	private void writeCheckpoint(){
+		
+		if( ( checkpoint == null ) || partlyTotalled ){
+			return;
+		}
+		
+		try{
+			checkpoint.write( processed, atomTotal, aminoTotal, aminoAvgTotal );
+		}catch( IOException ex ){
+			updateObservers("Unable to write checkpoint: " + ex.getMessage() );
+		}
+	}
+	
+	// Identify the structures and pocket files of the run, so the checkpoint of a different run is not resumed from
+	private long getRunSignature(){
+		
+		CRC32 crc = new CRC32();
+		for( int i = 0; i < conformers.getSize(); i++ ){
+			crc.update( ( conformers.getSequenceNo(i) + " " + conformers.getName(i) + "\n" ).getBytes() );
+			for( StructureSet pocketSet : pocketStructures ){
+				if( i < pocketSet.getSize() ){
+					crc.update( ( pocketSet.getStructure(i) + "\n" ).getBytes() );
+				}
+			}
+		}
+		for( boolean direct : isDirect ){
+			crc.update( direct ? 1 : 0 );
+		}
+		return crc.getValue();
+	}
+	
+	// Hand the conformer and pocket files of the structures after this one to the decompressor, only those the reader
+	// will take from it rather than reading the file itself
+	private void prefetchFiles( int structNo ){
+		
+		for( int i = structNo + 1; ( i <= structNo + Decompressor.getLookahead() ) && ( i < conformers.getSize() ); i++ ){
+			for( File file : getStructureFiles( i ) ){
+				if( pdbReader.canReadBytes( file ) ){
+					Decompressor.prefetch( file );
+				}
+			}
+		}
+	}
+	
+	// Drop the files of the structures from the first to the last that the decompressor still holds
+	private void cancelPrefetch( int first, int last ){
+		
+		for( int i = first; ( i <= last ) && ( i < conformers.getSize() ); i++ ){
+			for( File file : getStructureFiles( i ) ){
+				Decompressor.cancel( file );
+			}
+		}
+	}
+	
+	// Add the results of the pocket finder for one pocket program and radius to the totals for them.  The arrays of
+	// results may be longer than the structure, only the first noOfAtoms and noOfAminos entries belong to it.
+	private void addToTotals( int progIndex, int radiusIndex, boolean[] atomCount, int noOfAtoms, boolean[] aminoCount,
+			double[] aminoAverage, int noOfAminos ){
+		
+		int[] atomTotal = this.atomTotal[progIndex][radiusIndex];
+		int[] aminoTotal = this.aminoTotal[progIndex][radiusIndex];
+		double[] aminoAvgTotal = this.aminoAvgTotal[progIndex][radiusIndex];
+		
+		// Counts per atom, amino and amino average.
+		
+		// Total up how many times each atoms is detected as being pocket lining
+		for( int atomIndex = 0; atomIndex < noOfAtoms; atomIndex++){
+			if( atomCount[atomIndex] ){ 
+				atomTotal[atomIndex]++;
+			}
+		}
+		
+		// Total up how many times each residue is detected as being pocket lining
+		for( int aminoIndex = 0; aminoIndex < noOfAminos; aminoIndex++ ){
+			if( aminoCount[aminoIndex] ){
+				aminoTotal[aminoIndex]++;
+			}	
+		}
+		
+		// Total up the (atoms per residue ) averages for each residue 
+		for( int aminoAvgIndex = 0; aminoAvgIndex < noOfAminos - 1; aminoAvgIndex++ ){
+			aminoAvgTotal[aminoAvgIndex] += aminoAverage[aminoAvgIndex];
+		}
+	}
+	
 	 /**
 	  * 
 	  * @return a list containing the number of times each atom in the structure is pocket lining
 	  */
 	public List<Double> getAtomTotal(){
-		return atomTotal;
+		return getAtomTotal( 0 );
+	}
+	
+	/**
+	 * 
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return a list containing the number of times each atom in the structure is pocket lining
+	 */
+	public List<Double> getAtomTotal( int radiusIndex ){
+		return getAtomTotal( 0, radiusIndex );
+	}
+	
+	/**
+	 * 
+	 * @param progIndex position of the pocket program in the list of pocket structure sets
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return a list containing the number of times each atom in the structure is pocket lining
+	 */
+	public List<Double> getAtomTotal( int progIndex, int radiusIndex ){
+		return asList( atomTotal[progIndex][radiusIndex] );
 	}
 	
 	/**
@@ -183,7 +732,26 @@ public class PocketExtractor implements Observable{
 	 * @return a list containing the number of times each residue in the structure is pocket lining
 	 */
 	public List<Double> getAminoTotal(){
-		return aminoTotal;
+		return getAminoTotal( 0 );
+	}
+	
+	/**
+	 * 
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return a list containing the number of times each residue in the structure is pocket lining
+	 */
+	public List<Double> getAminoTotal( int radiusIndex ){
+		return getAminoTotal( 0, radiusIndex );
+	}
+	
+	/**
+	 * 
+	 * @param progIndex position of the pocket program in the list of pocket structure sets
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return a list containing the number of times each residue in the structure is pocket lining
+	 */
+	public List<Double> getAminoTotal( int progIndex, int radiusIndex ){
+		return asList( aminoTotal[progIndex][radiusIndex] );
 	}
 	
 	/**
@@ -191,7 +759,71 @@ public class PocketExtractor implements Observable{
 	 * @return a list containing the average number of pocket lining atoms per residue each residue in the structure
 	 */
 	public List<Double> getAminoAvgTotal(){
-		return aminoAvgTotal;
+		return getAminoAvgTotal( 0 );
+	}
+	
+	/**
+	 * 
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return a list containing the average number of pocket lining atoms per residue each residue in the structure
+	 */
+	public List<Double> getAminoAvgTotal( int radiusIndex ){
+		return getAminoAvgTotal( 0, radiusIndex );
+	}
+	
+	/**
+	 * 
+	 * @param progIndex position of the pocket program in the list of pocket structure sets
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return a list containing the average number of pocket lining atoms per residue each residue in the structure
+	 */
+	public List<Double> getAminoAvgTotal( int progIndex, int radiusIndex ){
+		return asList( aminoAvgTotal[progIndex][radiusIndex] );
+	}
+	
+	/**
+	 * 
+	 * @return number of pocket programs whose pockets are found for each structure
+	 */
+	public int getProgramCount(){
+		return pocketStructures.size();
+	}
+	
+	// Read only list views of the totals for the ProbabilityCalculator, the values are only boxed as they are read
+	private static List<Double> asList( final int[] counts ){
+		return new AbstractList<Double>(){
+			@Override
+			public Double get( int index ){
+				return (double)counts[index];
+			}
+			
+			@Override
+			public int size(){
+				return counts.length;
+			}
+		};
+	}
+	
+	private static List<Double> asList( final double[] totals ){
+		return new AbstractList<Double>(){
+			@Override
+			public Double get( int index ){
+				return totals[index];
+			}
+			
+			@Override
+			public int size(){
+				return totals.length;
+			}
+		};
+	}
+	
+	/**
+	 * 
+	 * @return stages the structures were passed through, with the time each spent working and waiting
+	 */
+	public List<PipelineStage> getStages(){
+		return stages;
 	}
 	
 	@Override
@@ -208,4 +840,60 @@ public class PocketExtractor implements Observable{
 		}
 	}
 		
+	
+	// One structure on its way through the stages, with what each stage has made of it
+	private static class StructureWork {
+		
+		final int structNo;
+		Map<File, byte[]> fileBytes = new HashMap<File, byte[]>();	// Contents of the files read, until parsed
+		ProteinStructure pdbStruct;									// Structures parsed, until searched
+		ProteinStructure[] pocketStructs;							// One for each pocket program
+		boolean matchesReference;
+		Throwable error;											// Problem met by a stage, passed on to be thrown in order
+		
+		// Messages, and results for each pocket program and radius until they are totalled
+		final List<String> messages = new ArrayList<String>();
+		PocketResults results;
+		
+		StructureWork( int structNo ){
+			this.structNo = structNo;
+		}
+	}
+	
+	// Which atoms and residues are pocket lining, and the average atoms per residue, for each pocket program and radius
+	// of one structure.  The arrays are re-used for structure after structure, growing when a structure needs more room,
+	// so only the first noOfAtoms and noOfRes entries of each program's arrays are in use.
+	private static class PocketResults {
+		
+		final boolean[][][] atomCount;			// [program][radius][atom]
+		final boolean[][][] aminoCount;			// [program][radius][residue]
+		final double[][][] aminoAverage;		// [program][radius][residue]
+		final int[] noOfAtoms;
+		final int[] noOfRes;
+		
+		PocketResults( int noOfProgs, int noOfRadii ){
+			atomCount = new boolean[noOfProgs][noOfRadii][];
+			aminoCount = new boolean[noOfProgs][noOfRadii][];
+			aminoAverage = new double[noOfProgs][noOfRadii][];
+			noOfAtoms = new int[noOfProgs];
+			noOfRes = new int[noOfProgs];
+		}
+		
+		// Copy the pocket finder's results for one program and radius, the first atomsInUse and aminosInUse entries
+		void set( int p, int r, boolean[] atoms, int atomsInUse, boolean[] aminos, double[] aminoAverages, int aminosInUse ){
+			
+			if( ( atomCount[p][r] == null ) || ( atomCount[p][r].length < atomsInUse ) ){
+				atomCount[p][r] = new boolean[atomsInUse];
+			}
+			if( ( aminoCount[p][r] == null ) || ( aminoCount[p][r].length < aminosInUse ) ){
+				aminoCount[p][r] = new boolean[aminosInUse];
+				aminoAverage[p][r] = new double[aminosInUse];
+			}
+			System.arraycopy( atoms, 0, atomCount[p][r], 0, atomsInUse );
+			System.arraycopy( aminos, 0, aminoCount[p][r], 0, aminosInUse );
+			System.arraycopy( aminoAverages, 0, aminoAverage[p][r], 0, aminosInUse );
+			noOfAtoms[p] = atomsInUse;
+			noOfRes[p] = aminosInUse;
+		}
+	}
 }
@@ -1,26 +1,112 @@
 package com.provar.app;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
+import java.util.BitSet;
 
-import org.biojava.bio.structure.Atom;
-import org.biojava.bio.structure.AtomImpl;
-import org.biojava.bio.structure.Calc;
 import org.biojava.bio.structure.StructureException;
 
 public class PocketFinder {
+	
+	// Ways of matching direct pocket atoms to the atoms in the structure
+	public static final String DIRECT_BITSET = "bitset";	// Look up each atom's serial number in a set of pocket serial numbers
+	public static final String DIRECT_BULK = "bulk";		// Walk the pocket atoms once, marking atoms through a serial number to atom map
+	
+	// Directions the pocket search can run in
+	public static final String SEARCH_FROM_ATOMS = "atoms";	// Index the probes and search outwards from each atom
+	public static final String SEARCH_FROM_PROBES = "probes";	// Index the atoms and search outwards from each probe
+	public static final String SEARCH_AUTO = "auto";		// Choose for each structure from the probe to atom ratio
+	
+	// Probe to atom ratio at or below which the automatic choice searches from the probes.  Around this ratio the two
+	// directions take about the same time with the grid, see NeighbourSearchBenchmark
+	public static final double DEFAULT_PROBE_ATOM_RATIO = 0.02;
 
-	private ArrayList<Boolean> pocketAminos;
-	private ArrayList<Boolean> pocketAtoms;
-	private ArrayList<Double> pocketAminoAverage;
+	// Results for the last structure, with one entry for each pocket radius searched.  These are sized from the first
+	// structure and cleared for each following one, so only the first atomCount and residueCount entries are in use.
+	private boolean[][] pocketAminos;			// [radius][residue] residue has a pocket lining atom
+	private boolean[][] pocketAtoms;			// [radius][atom] atom is pocket lining
+	private double[][] pocketAminoAverage;		// [radius][residue] fraction of the atoms in the residue that are pocket lining
+	private int[][] resTally;					// [radius][residue] number of pocket lining atoms in the residue
+	private double[] radiiSq;					// Square of each pocket radius
+	private int atomCount;
+	private int residueCount;
+	
+	// Probes passed by the search limits of the full scan for the current atom
+	private double[] candidateX;
+	private double[] candidateY;
+	private double[] candidateZ;
+	
+	// Distance test shared by the spatial search and the full scan
+	private final DistanceKernel kernel;
+	
+	// Spatial search over the pocket probes, null when every probe is scanned for each atom
+	private final NeighbourSearch probeSearch;
+	
+	// Spatial search over the protein atoms for searching outwards from the probes, null when every probe is scanned
+	private final NeighbourSearch atomSearch;
+	private final String searchDirection;
+	private final double probeAtomRatio;
+	private String lastSearchDirection;			// Direction used for the last structure
+	private double[] atomNearestSq;				// Squared distance from each atom to its nearest probe when searching from the probes
+	
+	// Direct mode lookups, kept between structures so they are only reallocated when they need to grow
+	private final boolean useBulkDirect;
+	private final BitSet pocketSerials;			// Serial numbers of the direct pocket atoms
+	private final BitSet directPocketAtoms;		// Atoms in the structure marked as pocket atoms in bulk mode
+	private int[] firstAtomWithSerial;			// Index of the first atom with each serial number, -1 for none
+	private int[] nextAtomWithSerial;			// Index of the next atom sharing the same serial number, -1 for none
+	
+	// Atoms per residue, kept while the structures share the same residue numbering as the reference structure
+	private ResidueIndex residueIndex;
+	
+	public PocketFinder(){
+		this( new ProvarOptions() );
+	}
+	
+	/**
+	 * 
+	 * @param options tuning options for the run
+	 */
+	public PocketFinder( ProvarOptions options ){
+		kernel = DistanceKernelFactory.CreateDistanceKernel( options.getDistanceKernel() );
+		probeSearch = NeighbourSearchFactory.CreateNeighbourSearch( options.getNeighbourSearch(), kernel );
+		atomSearch = NeighbourSearchFactory.CreateNeighbourSearch( options.getNeighbourSearch(), kernel );
+		
+		if( !options.getSearchDirection().equals( SEARCH_AUTO ) && !options.getSearchDirection().equals( SEARCH_FROM_ATOMS ) &&
+				!options.getSearchDirection().equals( SEARCH_FROM_PROBES ) ){
+			throw new IllegalArgumentException("Unknown pocket search direction: " + options.getSearchDirection() );
+		}
+		searchDirection = options.getSearchDirection();
+		probeAtomRatio = options.getProbeAtomRatio();
+		lastSearchDirection = SEARCH_FROM_ATOMS;
+		
+		if( options.getDirectLookup().equals( DIRECT_BULK ) ){
+			useBulkDirect = true;
+		}else if( options.getDirectLookup().equals( DIRECT_BITSET ) ){
+			useBulkDirect = false;
+		}else{
+			throw new IllegalArgumentException("Unknown direct pocket atom lookup: " + options.getDirectLookup() );
+		}
+		
+		pocketSerials = new BitSet();
+		directPocketAtoms = new BitSet();
+	}
 
 	/**
 	 * 
 	 * @return a list containing true or false values depending on whether or not the residue is pocket lining for each residue in the structure
 	 */
 	public ArrayList<Boolean> getPocketLiningAminoList() {
-		return pocketAminos;
+		return getPocketLiningAminoList( 0 );
+	}
+	
+	/**
+	 * 
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return a list containing true or false values depending on whether or not the residue is pocket lining for each residue in the structure
+	 */
+	public ArrayList<Boolean> getPocketLiningAminoList( int radiusIndex ) {
+		return toList( pocketAminos[radiusIndex], residueCount );
 	}
 
 	/**
@@ -28,7 +114,16 @@ public class PocketFinder {
 	 * @return a list containing true or false values depending on whether or not the atom is pocket lining for each atoms in the structure
 	 */
 	public ArrayList<Boolean> getPocketLiningAtomList() {
-		return pocketAtoms;
+		return getPocketLiningAtomList( 0 );
+	}
+	
+	/**
+	 * 
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return a list containing true or false values depending on whether or not the atom is pocket lining for each atoms in the structure
+	 */
+	public ArrayList<Boolean> getPocketLiningAtomList( int radiusIndex ) {
+		return toList( pocketAtoms[radiusIndex], atomCount );
 	}
 
 	/**
@@ -36,7 +131,101 @@ public class PocketFinder {
 	 * @return a list containing the averaged number of atoms per residue for each residue in the structure
 	 */
 	public ArrayList<Double> getPocketLiningAminoAverageList() {
-		return pocketAminoAverage;
+		return getPocketLiningAminoAverageList( 0 );
+	}
+	
+	/**
+	 * 
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return a list containing the averaged number of atoms per residue for each residue in the structure
+	 */
+	public ArrayList<Double> getPocketLiningAminoAverageList( int radiusIndex ) {
+		ArrayList<Double> list = new ArrayList<Double>( residueCount );
+		for( int i = 0; i < residueCount; i++ ){
+			list.add( pocketAminoAverage[radiusIndex][i] );
+		}
+		return list;
+	}
+
+	/**
+	 * 
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return copy of whether or not each residue in the structure is pocket lining
+	 */
+	public boolean[] getPocketLiningAminos( int radiusIndex ){
+		return Arrays.copyOf( pocketAminos[radiusIndex], residueCount );
+	}
+	
+	/**
+	 * 
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return copy of whether or not each atom in the structure is pocket lining
+	 */
+	public boolean[] getPocketLiningAtoms( int radiusIndex ){
+		return Arrays.copyOf( pocketAtoms[radiusIndex], atomCount );
+	}
+	
+	/**
+	 * 
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return copy of the averaged number of atoms per residue for each residue in the structure
+	 */
+	public double[] getPocketLiningAminoAverages( int radiusIndex ){
+		return Arrays.copyOf( pocketAminoAverage[radiusIndex], residueCount );
+	}
+	
+	/**
+	 * 
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return whether or not each atom is pocket lining, without copying.  The array is re-used for the next
+	 * structure and only its first getAtomCount() entries belong to the last structure.
+	 */
+	public boolean[] getPocketLiningAtomArray( int radiusIndex ){
+		return pocketAtoms[radiusIndex];
+	}
+	
+	/**
+	 * 
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return whether or not each residue is pocket lining, without copying.  The array is re-used for the next
+	 * structure and only its first getResidueCount() entries belong to the last structure.
+	 */
+	public boolean[] getPocketLiningAminoArray( int radiusIndex ){
+		return pocketAminos[radiusIndex];
+	}
+	
+	/**
+	 * 
+	 * @param radiusIndex position of the pocket radius in the list of radii searched
+	 * @return averaged number of atoms per residue for each residue, without copying.  The array is re-used for the next
+	 * structure and only its first getResidueCount() entries belong to the last structure.
+	 */
+	public double[] getPocketLiningAminoAverageArray( int radiusIndex ){
+		return pocketAminoAverage[radiusIndex];
+	}
+	
+	/**
+	 * 
+	 * @return number of atoms in the last structure searched
+	 */
+	public int getAtomCount(){
+		return atomCount;
+	}
+	
+	/**
+	 * 
+	 * @return number of residue entries for the last structure searched, one more than the highest residue number
+	 */
+	public int getResidueCount(){
+		return residueCount;
+	}
+	
+	/**
+	 * 
+	 * @return direction the last structure was searched in, atoms or probes, not used for direct pocket predictions
+	 */
+	public String getSearchDirection(){
+		return lastSearchDirection;
 	}
 
 	/**
@@ -48,211 +237,350 @@ public class PocketFinder {
 	 * @throws StructureException
 	 */
 	public void FindPockets(ProteinStructure refData, ProteinStructure pocketData, double pocketRadius, boolean isDirect)throws StructureException {
+		FindPockets( refData, pocketData, new double[]{ pocketRadius }, isDirect );
+	}
+	
+	/**
+	 * 
+	 * @param refData protein structure
+	 * @param pocketData pocket predictions for the protein structure
+	 * @param pocketRadii distances from the protein surface atom, in ascending order, each gets its own set of results
+	 * @param isDirect specifies is the pocket lining atoms have already been determined
+	 * @throws StructureException
+	 */
+	public void FindPockets(ProteinStructure refData, ProteinStructure pocketData, double[] pocketRadii, boolean isDirect)throws StructureException {
 		
 		// Load in all data locally to determine how many times to do the loop and save calling
 		// get methods on every loop
 		
-		double radius = pocketRadius;
+		int noOfRadii = pocketRadii.length;
+		
+		// The search is built for the largest radius, each atom's nearest probe is then binned against the radii
+		double maxRadius = pocketRadii[noOfRadii - 1];
+		if( ( radiiSq == null ) || ( radiiSq.length != noOfRadii ) ){
+			radiiSq = new double[noOfRadii];
+		}
+		for( int r = 0; r < noOfRadii; r++ ){
+			radiiSq[r] = pocketRadii[r] * pocketRadii[r];
+		}
 		
-		// Retrieve list of atom coordinates for both reference structure and pocket structure
-		List<double[]> refAtomXYZ = refData.getAtomXYZ();
-		List<double[]> pocketAtomXYZ = pocketData.getAtomXYZ();
+		// Retrieve the atom coordinates for the reference structure and the pocket structure
+		double[] refX = refData.getAtomX();
+		double[] refY = refData.getAtomY();
+		double[] refZ = refData.getAtomZ();
 		
 		// Find number of atoms in the reference structure
-		int noOfAtoms = refAtomXYZ.size();
+		int noOfAtoms = refData.getAtomCount();
 		
 		// Retrieve array of residue sequence numbers for each atom, this will be the same size as noOfAtoms
-		List<Integer> residueNo = refData.getResidueSeqNo();
+		int[] residueNo = refData.getResidueSeqNoArray();
 		
 		// Get the total number of residues in the structure
 		int maxRes = refData.getMaxResidue() + 1;
 		
-		// Initialise arrays to false each amino and atom will be set to true or false
-		// depending on weather or not they are pocket lining 
-		pocketAminos = new ArrayList<Boolean>( Collections.nCopies( maxRes, false ) ); 
-		pocketAtoms = new ArrayList<Boolean>( Collections.nCopies( noOfAtoms, false) );
-		pocketAminoAverage = new ArrayList<Double>( Collections.nCopies( maxRes, 0.0 ) ); 
-		
-		// Res tally for each residue in the sequence keep a tally of how many times it is flagged as
-		// pocket lining.
-		List<Double> resTally = new ArrayList<Double>( Collections.nCopies( maxRes, 0.0 ) );
+		// Reset arrays to false each amino and atom will be set to true or false
+		// depending on weather or not they are pocket lining, res tally for each residue in the sequence
+		// keeps a tally of how many times it is flagged as pocket lining
+		resetResults( noOfRadii, noOfAtoms, maxRes );
 		
 		// Retrieve atom serial numbers
-		List<Integer> atomSerNo = refData.getAtomSerNos();
+		int[] atomSerNo = refData.getAtomSerNoArray();
 		
-		// Handle for atom id numbers
-		List<Integer> pocketAtomSorted;
+		// Pocket probe coordinates for the full scan, direct predictions only have the serial numbers read
+		double[] pocketX = isDirect ? null : pocketData.getAtomX();
+		double[] pocketY = isDirect ? null : pocketData.getAtomY();
+		double[] pocketZ = isDirect ? null : pocketData.getAtomZ();
+		int noOfProbes = pocketData.getAtomCount();
 		
 		// Check for direct pocket predictions
 		if( isDirect ){
 			
-			// Get the atoms serial numbers for the pockets
-			pocketAtomSorted = pocketData.getAtomSerNos();
-			
-			// Sort the serial numbers into ascending order
-			Collections.sort( pocketAtomSorted );
+			// Build the lookup of pocket atoms once for this structure so each atom is a single test
+			if( useBulkDirect ){
+				markDirectPocketAtoms( atomSerNo, pocketData.getAtomSerNoArray() );
+			}else{
+				setPocketSerials( pocketData.getAtomSerNoArray() );
+			}
 			
 		}else{
-			// Proceed with unordered list of atom serial numbers
-			pocketAtomSorted = pocketData.getAtomSerNos();
+			
+			// Searching from the probes needs the atoms indexed, a full scan always searches from the atoms
+			if( atomSearch == null ){
+				lastSearchDirection = SEARCH_FROM_ATOMS;
+			}else if( searchDirection.equals( SEARCH_AUTO ) ){
+				lastSearchDirection = ( noOfProbes <= probeAtomRatio * noOfAtoms ) ? SEARCH_FROM_PROBES : SEARCH_FROM_ATOMS;
+			}else{
+				lastSearchDirection = searchDirection;
+			}
+			
+			if( lastSearchDirection.equals( SEARCH_FROM_PROBES ) ){
+				searchFromProbes( refData, pocketData, maxRadius );
+			}else if( probeSearch != null ){
+				// Index the probes once for this structure so each atom only checks the probes near it
+				probeSearch.build( pocketX, pocketY, pocketZ, noOfProbes, maxRadius );
+			}else if( ( candidateX == null ) || ( candidateX.length < noOfProbes ) ){
+				candidateX = new double[noOfProbes];
+				candidateY = new double[noOfProbes];
+				candidateZ = new double[noOfProbes];
+			}
 		}
 		
+		// Each atom's nearest probe distance has already been found when searching from the probes
+		boolean fromProbes = !isDirect && lastSearchDirection.equals( SEARCH_FROM_PROBES );
+		
 		// Flag to signal that atom is pocket lining
 		boolean isPocketLining;
 		
 		for(int i = 0; i < noOfAtoms; i++){
 			
 			// Get the residue number that the current atom belongs to
-			int resNo = residueNo.get(i);
+			int resNo = residueNo[i];
 			
 			// Reset the flag
 			isPocketLining = false;
 			
+			// Position of the smallest radius the atom is pocket lining for, noOfRadii if it is not pocket lining
+			int liningFrom = noOfRadii;
+			
 			// Catch oddly names resides, some start with 500
 			if(resNo > 0 && resNo < maxRes ){
 				
 				// Some structures may homologues skip if the residues has been counted already
-				if( /*( pocketAminos.get(resNo) == true ) && */ pocketAtoms.get(i) == true  ){
+				if( /*( pocketAminos[0][resNo] == true ) && */ pocketAtoms[0][i] == true  ){
 					// Flagged as already scanned skip, used for multiple chains
 				}else{
 					if( isDirect ){
 						// Direct mode - Pocket program directly outputs pocket atoms or residues
-						isPocketLining = pocketLiningDirect(pocketAtomSorted, atomSerNo.get(i) );
-					}else{
-						// Calculate pocket-lining based on nearest atoms/residues to protein structure atom coordinates
+						if( useBulkDirect ){
+							isPocketLining = directPocketAtoms.get(i);
+						}else{
+							isPocketLining = pocketLiningDirect( atomSerNo[i] );
+						}
 						
-						// Apply the search space limits based on pocket radius
-						List<double[]> searchSpace = ApplyLimits(refAtomXYZ.get(i), pocketAtomXYZ, radius);
+						// The radius plays no part so the atom is pocket lining for all or none of them
+						liningFrom = isPocketLining ? 0 : noOfRadii;
+						
+					}else if( fromProbes || ( noOfRadii > 1 ) ){
+						// Find the distance to the nearest probe once and compare it against each radius
+						double nearestSq;
+						if( fromProbes ){
+							nearestSq = atomNearestSq[i];
+						}else if( probeSearch != null ){
+							nearestSq = probeSearch.nearestDistanceSq( refX[i], refY[i], refZ[i], maxRadius );
+						}else{
+							nearestSq = kernel.nearestDistanceSq( pocketX, pocketY, pocketZ, 0, noOfProbes, 
+									refX[i], refY[i], refZ[i], radiiSq[noOfRadii - 1] );
+						}
 						
-						// Determine whether or not it is pocket lining
-						try{
-							isPocketLining = PocketLining(refAtomXYZ.get(i), searchSpace, radius);
-						}catch(StructureException ex){
-							throw ex;
+						while( ( liningFrom > 0 ) && ( nearestSq < radiiSq[liningFrom - 1] ) ){
+							liningFrom--;
 						}
+						
+					}else{
+						if( probeSearch != null ){
+							// Only probes near the atom in the spatial index can be within the pocket radius
+							isPocketLining = probeSearch.anyWithin( refX[i], refY[i], refZ[i], maxRadius );
+						}else{
+							// Calculate pocket-lining based on nearest atoms/residues to protein structure atom coordinates
+							// Apply the search space limits based on pocket radius
+							int searchSpace = ApplyLimits( refX[i], refY[i], refZ[i], pocketX, pocketY, pocketZ, noOfProbes, maxRadius );
+							
+							// Determine whether or not it is pocket lining
+							isPocketLining = PocketLining( refX[i], refY[i], refZ[i], searchSpace, maxRadius );
+						}
+						
+						liningFrom = isPocketLining ? 0 : 1;
 					}
 					
-					if( isPocketLining ){
+					// An atom pocket lining for one radius is pocket lining for every larger radius
+					for( int r = liningFrom; r < noOfRadii; r++ ){
 						
 						// Keep a count of how pocket lining residues and atoms
-						if( pocketAminos.get(resNo -1) == false ){
-							
-							// Minus 1 on resNo to place elements correctly into 0 based array
-							pocketAminos.set(resNo -1, true);
-						}
+						// Minus 1 on resNo to place elements correctly into 0 based array
+						pocketAminos[r][resNo -1] = true;
 						
 						// Flag this atom as pocket lining
-						pocketAtoms.set(i, true);
+						pocketAtoms[r][i] = true;
 						
 						// Add one to the tally of atoms that are pocket lining for this particular residue
-						resTally.set( resNo -1, ( resTally.get( resNo -1 ) ) + 1 );
+						resTally[r][resNo -1]++;
 					}
 				}
 			}
 		}
 		
+		// Count the atoms in each residue once and re-use the counts for every structure with the same residues
+		if( ( residueIndex == null ) || !residueIndex.matches( residueNo, maxRes ) ){
+			residueIndex = new ResidueIndex( residueNo, maxRes );
+		}
+		
 		// Loop through the residues for amino averages
-		for( int i = 0; i < maxRes; i++ ){
-			
-			// Find the total number of atoms for this reside
-			int thisResCount = 0;
-			
-			// Iterate over the list of atoms residue numbers and count how many atoms there are that that residue
-			for(int resCount : residueNo ){
-				if( resCount == i+1 ){
-					thisResCount++;
-				}
-			}
-			
-			// Control for divide by 0 cases
-			if( resTally.get(i) > 0.0 ){
+		for( int r = 0; r < noOfRadii; r++ ){
+			for( int i = 0; i < maxRes; i++ ){
 				
-				// For each residue take the tally count of pocket binding atoms in resTally and divide by total 
-				// number of atoms for that particular residue.
-				Double resAverage = resTally.get(i) / thisResCount;
+				// Find the total number of atoms for this reside
+				int thisResCount = residueIndex.getAtomCount( i + 1 );
 				
-				// Enter the residue average for this residue in the list of averages
-				pocketAminoAverage.set(i, resAverage);
-			}else{
-				
-				// If there where no pocket lining atoms, set the value to 0.0, each entry must have a value
-				pocketAminoAverage.set(i, 0.0);
+				// Control for divide by 0 cases
+				if( resTally[r][i] > 0 ){
+					
+					// For each residue take the tally count of pocket binding atoms in resTally and divide by total 
+					// number of atoms for that particular residue.
+					pocketAminoAverage[r][i] = (double)resTally[r][i] / thisResCount;
+				}else{
+					
+					// If there where no pocket lining atoms, set the value to 0.0, each entry must have a value
+					pocketAminoAverage[r][i] = 0.0;
+				}
+			}
+		}
+	}
+	
+	// Size the result arrays for a structure, re-using and clearing the arrays from the last structure where they fit
+	private void resetResults( int noOfRadii, int noOfAtoms, int maxRes ){
+		
+		if( ( pocketAtoms == null ) || ( pocketAtoms.length != noOfRadii ) || ( pocketAtoms[0].length < noOfAtoms ) ){
+			pocketAtoms = new boolean[noOfRadii][noOfAtoms];
+		}else{
+			for( boolean[] flags : pocketAtoms ){
+				Arrays.fill( flags, 0, noOfAtoms, false );
+			}
+		}
+		
+		if( ( pocketAminos == null ) || ( pocketAminos.length != noOfRadii ) || ( pocketAminos[0].length < maxRes ) ){
+			pocketAminos = new boolean[noOfRadii][maxRes];
+			pocketAminoAverage = new double[noOfRadii][maxRes];
+			resTally = new int[noOfRadii][maxRes];
+		}else{
+			// Every average is written for each structure so only the flags and tallies need clearing
+			for( int r = 0; r < noOfRadii; r++ ){
+				Arrays.fill( pocketAminos[r], 0, maxRes, false );
+				Arrays.fill( resTally[r], 0, maxRes, 0 );
 			}
 		}
+		
+		atomCount = noOfAtoms;
+		residueCount = maxRes;
+	}
+	
+	// Index the atoms and visit the atoms near each probe, leaving the squared distance from each atom to its
+	// nearest probe in atomNearestSq.  Atoms with no probe within the radius are left at the radius squared.
+	private void searchFromProbes( ProteinStructure refData, ProteinStructure pocketData, double maxRadius ){
+		
+		int noOfAtoms = refData.getAtomCount();
+		
+		if( ( atomNearestSq == null ) || ( atomNearestSq.length < noOfAtoms ) ){
+			atomNearestSq = new double[noOfAtoms];
+		}
+		Arrays.fill( atomNearestSq, 0, noOfAtoms, maxRadius * maxRadius );
+		
+		atomSearch.build( refData.getAtomX(), refData.getAtomY(), refData.getAtomZ(), noOfAtoms, maxRadius );
+		
+		double[] probeX = pocketData.getAtomX();
+		double[] probeY = pocketData.getAtomY();
+		double[] probeZ = pocketData.getAtomZ();
+		
+		for( int p = 0; p < pocketData.getAtomCount(); p++ ){
+			atomSearch.updateNearest( probeX[p], probeY[p], probeZ[p], maxRadius, atomNearestSq );
+		}
+	}
+	
+	// Box the first count flags of an array into a list
+	private static ArrayList<Boolean> toList( boolean[] flags, int count ){
+		ArrayList<Boolean> list = new ArrayList<Boolean>( count );
+		for( int i = 0; i < count; i++ ){
+			list.add( flags[i] );
+		}
+		return list;
 	}
 
-	private List<double[]> ApplyLimits(double[] originAtomCoords, List<double[]> pocketCoords, double pocketRadius) {
+	// Copy the probes passing the search space limits into the candidate arrays, returning how many there are
+	private int ApplyLimits( double x, double y, double z, double[] pocketX, double[] pocketY, double[] pocketZ, int noOfProbes, double pocketRadius ) {
 		
-		List<double[]> searchSpaceVectors = new ArrayList<double[]>(); 
+		int searchSpace = 0;
 		
 		// Ensure that the edges of the search space included
 		double radius = pocketRadius*1.01;
 	
 		// Search for atoms that falls within the radius along the XYZ planes in both positive and negative direction
 		// If they do add them to a list of potential pocket lining atoms
-		for( double[] XYZcoords : pocketCoords ){
+		for( int p = 0; p < noOfProbes; p++ ){
 			
 			// Calculate distances between the location of the atom on the protein and all the pocket lining atoms
-			if(( XYZcoords[0] < ( originAtomCoords[0] + radius ) ) &
-				( XYZcoords[1] < ( originAtomCoords[1] + radius ) ) &
-				( XYZcoords[2] < ( originAtomCoords[2] + radius ) )) {
-				searchSpaceVectors.add(XYZcoords);
-			}
-			
-			if(( XYZcoords[0] > ( originAtomCoords[0] - radius ) ) &
-				( XYZcoords[1] > ( originAtomCoords[1] - radius ) ) &
-				( XYZcoords[2] > ( originAtomCoords[2] - radius ) )) {
-				searchSpaceVectors.add(XYZcoords);
+			if( ( ( pocketX[p] < ( x + radius ) ) & ( pocketY[p] < ( y + radius ) ) & ( pocketZ[p] < ( z + radius ) ) ) |
+				( ( pocketX[p] > ( x - radius ) ) & ( pocketY[p] > ( y - radius ) ) & ( pocketZ[p] > ( z - radius ) ) ) ){
+				candidateX[searchSpace] = pocketX[p];
+				candidateY[searchSpace] = pocketY[p];
+				candidateZ[searchSpace] = pocketZ[p];
+				searchSpace++;
 			}
 		}
-		// Return the list that represents all the atoms that fall within the pocket radius
-		return searchSpaceVectors;
+		// Return the number of atoms that fall within the search space
+		return searchSpace;
 	}
 
-	private boolean PocketLining(double[] originAtomCoords, List<double[]> searchSpace, double pocketRadius)throws StructureException {
+	private boolean PocketLining( double x, double y, double z, int searchSpace, double pocketRadius ) {
 		
-		// Create two atoms to hold the origin atom (on protein) and one for the search space atom
-		// These atom objects are needed for the Calc.getDistance method.
-		Atom pocketAtom = new AtomImpl();
-		Atom proteinAtom = new AtomImpl();
+		// Take each pocket atom found to be within the search space radius and calculate the distance between it
+		// and the atom on the surface of the protein, comparing squared distances so no square root is needed.
+		// At the first occurrence of an atom that falls within the pocket radius flag as pocket lining
+		return kernel.anyWithin( candidateX, candidateY, candidateZ, 0, searchSpace, x, y, z, pocketRadius * pocketRadius );
+	}
+	
+	// Fill the set of serial numbers of the direct pocket atoms
+	private void setPocketSerials( int[] pocketAtomSerNos ){
 		
-		double dist = 0.0;
+		pocketSerials.clear();
 		
-		// Take each pocket atom found to be within the search space radius and calculate the distance between it
-		// and the atom on the surface of the protein
-		for( double[] atomXYZcoords : searchSpace ){
-			
-			pocketAtom.setCoords( atomXYZcoords );
-			proteinAtom.setCoords( originAtomCoords );
-			
-			try{
-				dist = Calc.getDistance( pocketAtom, proteinAtom );
-			}catch(StructureException ex){
-				throw ex;
-			}
-			
-			// At the first occurrence of an atom that falls within the pocket radius
-			// flag as pocket lining
-			if( dist < pocketRadius ){
-				return true;
+		for( int serial : pocketAtomSerNos ){
+			if( serial >= 0 ){
+				pocketSerials.set( serial );
 			}
 		}
-		// No atoms where found to be pocket lining, flag as non-pocket lining
-		return false;
 	}
 	
-	private boolean pocketLiningDirect( List<Integer>sortedPocketAtoms, Integer structAtom ){
+	private boolean pocketLiningDirect( int structAtom ){
 		
-		// Iterate over the list of sorted ( direct ) pocket atoms
-		for( Integer pocketAtom : sortedPocketAtoms ){
-			
-			// If the current atom matches any in the list then flag it as pocket lining
-			if( pocketAtom.equals( structAtom ) ){
-				return true;
+		// The atom is pocket lining if its serial number is one of the pocket atoms
+		return ( structAtom >= 0 ) && pocketSerials.get( structAtom );
+	}
+	
+	// Walk the list of pocket atoms once and mark every atom in the structure that shares a serial number with one
+	private void markDirectPocketAtoms( int[] atomSerNos, int[] pocketAtomSerNos ){
+		
+		int noOfAtoms = atomSerNos.length;
+		
+		// Find the highest serial number to size the map
+		int maxSerial = -1;
+		for( int serial : atomSerNos ){
+			maxSerial = Math.max( maxSerial, serial );
+		}
+		
+		if( ( firstAtomWithSerial == null ) || ( firstAtomWithSerial.length < maxSerial + 1 ) ){
+			firstAtomWithSerial = new int[maxSerial + 1];
+		}
+		if( ( nextAtomWithSerial == null ) || ( nextAtomWithSerial.length < noOfAtoms ) ){
+			nextAtomWithSerial = new int[noOfAtoms];
+		}
+		Arrays.fill( firstAtomWithSerial, 0, maxSerial + 1, -1 );
+		
+		// Map each serial number to the atoms that have it, working backwards keeps each chain in atom order
+		for( int i = noOfAtoms - 1; i >= 0; i-- ){
+			int serial = atomSerNos[i];
+			if( serial >= 0 ){
+				nextAtomWithSerial[i] = firstAtomWithSerial[serial];
+				firstAtomWithSerial[serial] = i;
 			}
 		}
 		
-		// No matches atom is not pocket lining
-		return false;
+		directPocketAtoms.clear();
+		
+		for( int serial : pocketAtomSerNos ){
+			if( ( serial >= 0 ) && ( serial <= maxSerial ) ){
+				for( int atom = firstAtomWithSerial[serial]; atom >= 0; atom = nextAtomWithSerial[atom] ){
+					directPocketAtoms.set( atom );
+				}
+			}
+		}
 	}
-}
\ No newline at end of file
+}
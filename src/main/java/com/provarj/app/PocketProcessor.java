@@ -3,8 +3,10 @@ package com.provar.app;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 //import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class PocketProcessor implements Runnable, Observable, Observer {
@@ -14,20 +16,24 @@ public class PocketProcessor implements Runnable, Observable, Observer {
 	private String 	runId;								// Provar Run ID, base directory takes this name, formerly 'pdfid'
 	private File 	outRootDir;							// Specifies the root directory for all data and Provar output
 	private File 	refPDB;								// Name of representative reference structure file
-	private File 	structureDir;						// Directory containing the reference structures
+	private File 	structureDir;						// Directory containing the reference structures, or a multi-model PDB or DCD file of them
 	private Pattern refFileFormat;						// Format of the conformer filename specific to this class
 	private ArrayList<PocketProgram> pocketPrograms;	// Store a list of pocket programs that will be used
 	
 	private File baseDir;								// Root directory for all pocket program output 
 	
-	private ArrayList<String> refStructs;				// Hold a list of path and filenames for the reference structures			
+	private ConformerSource conformers;					// Source of the reference structures, one file each or the models of one file
 	
 	private ArrayList<Observer> observers;				// List of observers to update with processing messages		
 	
 	private Double pocketRadius;						// Define the radius of how big the pocket to search will be
 	
+	private double[] pocketRadii;						// Radii searched in this run, the pocket radius unless a sweep of radii is set in the options
+	
 	private Log logfile;								// Log to store all output, this is the same output that the GUI log may see
 	
+	private ProvarOptions options;						// Tuning options that change how, but not what, is calculated
+	
 	// Constructor for a run, pass in all needed details here
 	public PocketProcessor( String runID, 
 			File outputDir, 
@@ -39,6 +45,9 @@ public class PocketProcessor implements Runnable, Observable, Observer {
 		// Distance to search from at for pocket binding atoms
 		pocketRadius = 3.75;							
 		
+		// Default tuning options, may be overridden with system properties
+		options = ProvarOptions.fromSystemProperties();
+		
 		// Take a copy of global parameters 
 		this.runId = runID;
 		this.outRootDir = outputDir;
@@ -82,19 +91,39 @@ public class PocketProcessor implements Runnable, Observable, Observer {
 		updateObservers("****************************************************************************************");
 		updateObservers("\t\tProvar ( " + ProvarJ.PROVAR_VERSION + " ) / Run ID : " + runId);
 		updateObservers("****************************************************************************************");
-		updateObservers("Using site point / atom cutt-off: " + pocketRadius);
+		// Search a sweep of radii in a single pass if they have been given, otherwise just the pocket radius
+		if( options.getPocketRadii() != null ){
+			pocketRadii = options.getPocketRadii();
+		}else{
+			pocketRadii = new double[]{ pocketRadius };
+		}
+		
+		StringBuilder cutOffs = new StringBuilder();
+		for( double radius : pocketRadii ){
+			cutOffs.append( cutOffs.length() > 0 ? ", " : "" ).append( radius );
+		}
+		updateObservers("Using site point / atom cutt-off: " + cutOffs );
+		updateObservers("Pocket probe search: " + options.getNeighbourSearch() );
+		updateObservers("Distance kernel: " + DistanceKernelFactory.CreateDistanceKernel( options.getDistanceKernel() ).getName() );
+		updateObservers("PDB reader: " + options.getPdbReader() );
+		if( conformers instanceof CachedConformerSource ){
+			CachedConformerSource cache = (CachedConformerSource)conformers;
+			updateObservers("Conformer cache: " + cache.getCacheFile() + ( cache.isCached() ? " (reading)" : " (writing)" ) );
+		}
 		
 		// Create a base directory in which all the output of all processed pocket programs will reside
 		updateObservers("Creating Provar directory structure...\n");
 		updateObservers("Creating Provar run-specific directory: " + fullPath);
 		
-		// Check that the intended path name for this run does not already exist
-		if( fullPath.exists() ){
+		// Check that the intended path name for this run does not already exist, unless carrying on from its checkpoints
+		if( fullPath.exists() && !options.isResume() ){
 			// Send out message to user
-			updateObservers("Directory: " + fullPath + " already exists, please try using a different run ID name");
+			updateObservers("Directory: " + fullPath + " already exists, please try using a different run ID name or resume the run");
 		}else{
-			// Check that the path is able to be created.
-			if( !fullPath.mkdirs() ){
+			if( fullPath.exists() ){
+				updateObservers("Resuming run in existing directory: " + fullPath );
+			}else if( !fullPath.mkdirs() ){
+				// Check that the path is able to be created.
 				updateObservers("Unable to create directory: " + fullPath + ", please check file permissions");
 			}
 			
@@ -133,160 +162,272 @@ public class PocketProcessor implements Runnable, Observable, Observer {
 	 */
 	public void ProcessPocketProgs(){
 		
-		// Process each pocket program data in turn
-		for(PocketProgram pocketProg : pocketPrograms ){
-			
-			// Hold a list of path and filenames for all of pocket structures
-			StructureSet pocketStructs = new PDBStructureSet( pocketProg.isMultiFile() );
-			
-			// Attempt to build an pair of lists that have an equal amount of files for structure/pocket pairs
-			for( String refFilename : refStructs ){
+		// Read the conformers once and search them for every program's pockets, unless asked to take each in turn
+		boolean fused = options.isFusedPrograms() && ( pocketPrograms.size() > 1 );
+		if( options.isResume() ){
+			checkCheckpointMode( fused );
+		}
+		
+		if( fused ){
+			ProcessPocketProgsFused();
+		}else{
+			// Process each pocket program data in turn
+			for(PocketProgram pocketProg : pocketPrograms ){
 				
-				// retrieve the sequence number form the filename
-				int refFile = getSequenceFile( refFilename );
+				StructureSet pocketStructs = getPocketStructures( pocketProg );
 				
-				// Attempt to retrieve the corresponding filename from the list of pocket files 
-				String pocketFile = pocketProg.getPocketFileName( refFile );
+				updateObservers("Extracting pocket data");
 				
-				// Check a valid name was returned
-				if ( pocketFile != null ){
-					if( !pocketProg.isMultiFile() ){
-						// Add single pocket prediction file to list to be processed
-						pocketStructs.add(pocketFile);
-					}else{
-						// Add multiple pocket prediction files to list to be processed
-						pocketStructs.add( pocketFile );
-						// Pocket program stores pockets in separate PDB files, store all the names of these files
-						pocketStructs.addMultiPartFiles( pocketProg.getMultiplePocketFiles( refFile ) );
-					}	
+				// Attempt to extract all of the data from the structure and pocket data
+				PocketExtractor extracter = null;
+				try{
+					extracter = new PocketExtractor( Collections.singletonList( pocketStructs ), conformers, refPDB, 
+							new boolean[]{ pocketProg.isDirect() }, pocketRadii, options, getCheckpointFile( pocketProg.getAbrevName() ), this );
+				}catch(IOException ex){
+					updateObservers( "Failed to extract pocket data: " + ex.getMessage() );
 				}
-			}
-			
-			// Make sure there are the same number of reference structures as there are pocket structures 
-			if( refStructs.size() != pocketStructs.getSize() ){
-				updateObservers( "Number of structure files and pocket files do not match" );
-				updateObservers( "There are " + refStructs.size() + " reference structures and " + pocketStructs.getSize() + " pocket structures" );
 				
-			}else{
-				updateObservers( "Processing " + refStructs.size() + " structures" );
+				// Write out the results for each pocket radius searched
+				for( int r = 0; r < pocketRadii.length; r++ ){
+					writePocketData( pocketProg, extracter, 0, r, pocketRadii[r] );
+				}
 			}
-				
-			updateObservers("Extracting pocket data");
-			
-			// Attempt to extract all of the data from the structure and pocket data
-			PocketExtractor extracter = null;
-			try{
-				extracter = new PocketExtractor( pocketStructs, refStructs, refPDB, pocketProg.isDirect(), pocketRadius, this );
-			}catch(IOException ex){
-				updateObservers( "Failed to extract pocket data: " + ex.getMessage() );
+		}
+		
+		// The results of every program have been written, so there is nothing left to resume, including from the
+		// checkpoints of an earlier attempt that processed the programs the other way
+		for( File checkpointFile : getCheckpointFiles( true ) ){
+			checkpointFile.delete();
+		}
+		for( File checkpointFile : getCheckpointFiles( false ) ){
+			checkpointFile.delete();
+		}
+	}
+	
+	// Search the pockets of all the pocket programs in one pass over the conformers, so each conformer is read and
+	// parsed once however many programs there are, then write out each program's results as if it had its own pass.
+	// The programs are searched in the order of their names, so the checkpoint is the same whatever order they were
+	// selected in.
+	private void ProcessPocketProgsFused(){
+		
+		List<PocketProgram> programsByName = getProgramsByName();
+		List<StructureSet> pocketStructs = new ArrayList<StructureSet>();
+		boolean[] isDirect = new boolean[programsByName.size()];
+		for( int p = 0; p < programsByName.size(); p++ ){
+			pocketStructs.add( getPocketStructures( programsByName.get(p) ) );
+			isDirect[p] = programsByName.get(p).isDirect();
+		}
+		
+		updateObservers("Extracting pocket data for " + pocketPrograms.size() + " pocket programs");
+		
+		// Attempt to extract all of the data from the structure and pocket data
+		PocketExtractor extracter = null;
+		try{
+			extracter = new PocketExtractor( pocketStructs, conformers, refPDB, isDirect, pocketRadii, options, 
+					getCheckpointFiles( true ).get(0), this );
+		}catch(IOException ex){
+			updateObservers( "Failed to extract pocket data: " + ex.getMessage() );
+		}
+		
+		// Write out the results of each program for each pocket radius searched, in the order the programs were selected
+		for( PocketProgram pocketProg : pocketPrograms ){
+			int p = programsByName.indexOf( pocketProg );
+			for( int r = 0; r < pocketRadii.length; r++ ){
+				writePocketData( pocketProg, extracter, p, r, pocketRadii[r] );
 			}
-			
-			// Calculate and display quantile data
-			updateObservers("Quantiles\t\t( 0.25, 0.5 ,0.75 ) for :" + pocketProg.getName() );
-
-			ProbabilityCalculator atom = new ProbabilityCalculator( extracter.getAtomTotal(), refStructs.size() );
-			double[] atomProb = atom.getQuantiles();
-			updateObservers("Atom\t\t: " + atomProb[0] + " " + atomProb[1] + " " + atomProb[2] );
-			
-			ArrayList<Double> zeroRemoved = new ArrayList<Double>();
-			for( Double num : extracter.getAtomTotal() ){
-				if( num > 0.0 ){
-					zeroRemoved.add(num);
-				}
+		}
+	}
+	
+	// Pocket programs in the order of their abbreviated names
+	private List<PocketProgram> getProgramsByName(){
+		
+		List<PocketProgram> programs = new ArrayList<PocketProgram>( pocketPrograms );
+		Collections.sort( programs, new Comparator<PocketProgram>(){
+			@Override
+			public int compare( PocketProgram prog1, PocketProgram prog2 ){
+				return prog1.getAbrevName().compareTo( prog2.getAbrevName() );
 			}
-			
-			// Calculate the probabilities for the atoms
-			ProbabilityCalculator atomAvg = new ProbabilityCalculator( zeroRemoved, refStructs.size() );
-			double[] atomAvgProb = atomAvg.getQuantiles();
-			updateObservers("Atom normalised\t: " + atomAvgProb[0] + " " + atomAvgProb[1] + " " + atomAvgProb[2] );
-			
-			// Calculate the probabilities for the amino acids
-			ProbabilityCalculator amino = new ProbabilityCalculator( extracter.getAminoTotal(), refStructs.size() );
-			double[] aminoProb = amino.getQuantiles();
-			updateObservers("Amino\t\t: " + aminoProb[0] + " " + aminoProb[1] + " " + aminoProb[2] );
-			
-			// Calculate the probabilities for the averaged amino acids
-			ProbabilityCalculator aminoAvg = new ProbabilityCalculator( extracter.getAminoAvgTotal() , refStructs.size() );
-			double[] aminoAvgProb = aminoAvg.getQuantiles();
-			updateObservers( "Amino average\t\t: " + aminoAvgProb[0] + " " + aminoAvgProb[1] + " " + aminoAvgProb[2] );
-			
-			updateObservers( "-----------------------------------------------------------------");
-			updateObservers( "Writing pocket data" );
-			
-			// Create a sub-directory to write the probability and PDB files to
-			StringBuilder pathAndFileName = new StringBuilder();
-			pathAndFileName.append(baseDir.toString() + File.separator + pocketProg.getAbrevName() + File.separator );
-			pathAndFileName.append(runId );
-			pathAndFileName.append("_" + pocketProg.getName());
-			
-			updateObservers("Creating sub-directory for: " + pocketProg.getName() );
-			updateObservers("Writing probability files..");
-			
-			try{
-				File pocketDir = new File( baseDir + File.separator + pocketProg.getAbrevName() );
-				if( !pocketDir.exists() ){
-					pocketDir.mkdirs();
-				}
-			}catch(Exception ex){
-				updateObservers("Unable to create base directory:" + ex.getMessage() );
+		});
+		return programs;
+	}
+	
+	// Checkpoint of the totals for the pocket programs named, kept in the run directory so a run that stops can be resumed
+	private File getCheckpointFile( String abrevNames ){
+		return new File( baseDir, runId + "_" + abrevNames + ".checkpoint" );
+	}
+	
+	// Checkpoints of the run, one named after all the programs in name order joined by '-' when they are processed in
+	// one pass, otherwise one for each program
+	private List<File> getCheckpointFiles( boolean fused ){
+		
+		List<File> files = new ArrayList<File>();
+		if( fused ){
+			StringBuilder abrevNames = new StringBuilder();
+			for( PocketProgram pocketProg : getProgramsByName() ){
+				abrevNames.append( ( abrevNames.length() > 0 ) ? "-" : "" ).append( pocketProg.getAbrevName() );
 			}
-			
-			updateObservers("OK");
-			// Output the prediction file
-			
-			// Write probabilities to PB files for amino, atom, amino average
-			try{
-				// Amino
-				new PBWrite(pathAndFileName + "_p_amino_out_" + pocketRadius + "A-Radial.txt", amino.getProbabilites() );
-				
-				// Atom
-				new PBWrite(pathAndFileName + "_p_ATOM_out_" + pocketRadius + "A-Radial.txt", atom.getProbabilites() );
-				
-				// Amino average
-				new PBWrite(pathAndFileName +"_p_amino_avg_by_atom_out_" + pocketRadius + "A-Radial.txt", aminoAvg.getProbabilites() );
-			}catch( IOException ex){
-				updateObservers("Could not write probability files: " + ex.getMessage() );
+			files.add( getCheckpointFile( abrevNames.toString() ) );
+		}else{
+			for( PocketProgram pocketProg : pocketPrograms ){
+				files.add( getCheckpointFile( pocketProg.getAbrevName() ) );
+			}
+		}
+		return files;
+	}
+	
+	// A run resumed with the pocket programs processed in one pass when they were processed in turn, or the other
+	// way round, does not find the checkpoints it left, so say which setting they were written with
+	private void checkCheckpointMode( boolean fused ){
+		
+		if( pocketPrograms.size() < 2 ){
+			return;
+		}
+		
+		for( File checkpointFile : getCheckpointFiles( fused ) ){
+			if( checkpointFile.exists() ){
+				return;
+			}
+		}
+		for( File checkpointFile : getCheckpointFiles( !fused ) ){
+			if( checkpointFile.exists() ){
+				updateObservers("Checkpoint " + getCheckpointFiles( fused ).get(0) + " not found, the run being resumed was checkpointed " +
+						( fused ? "for each pocket program in turn" : "for all pocket programs in one pass" ) + 
+						", resume with -Dprovarj.fusedPrograms=" + !fused + " to carry on from " + checkpointFile );
+				return;
 			}
+		}
+	}
+	
+	// Pair each conformer with the pocket prediction files of a pocket program
+	private StructureSet getPocketStructures( PocketProgram pocketProg ){
+		
+		// Hold a list of path and filenames for all of pocket structures
+		StructureSet pocketStructs = new PDBStructureSet( pocketProg.isMultiFile() );
+		
+		// Attempt to build an pair of lists that have an equal amount of files for structure/pocket pairs
+		for( int c = 0; c < conformers.getSize(); c++ ){
 			
-			// Write PDB output files
-			updateObservers("Writing PDB files...");
+			// retrieve the sequence number form the filename, or the model number
+			int refFile = conformers.getSequenceNo( c );
 			
-			try{
-				// Atom
-				PDBWrite outAtomFile = new PDBWrite( refPDB.toString() );
-				outAtomFile.WritePDBFile(pathAndFileName + "_ATOM_out_" + pocketRadius + "A-Radial.pdb", atom.getProbabilites(), PDBWrite.ATOM );
-				
-				// Amino
-				PDBWrite outAminoFile = new PDBWrite( refPDB.toString() );
-				outAminoFile.WritePDBFile(pathAndFileName + "_amino_out_" + pocketRadius + "A-Radial.pdb", amino.getProbabilites(), PDBWrite.AMINO );
-				
-				// Amino
-				PDBWrite outAminoAvgFile = new PDBWrite( refPDB.toString() );
-				outAminoAvgFile.WritePDBFile(pathAndFileName + "_amino_avg_by_atom_out_" + pocketRadius + "A-Radial.pdb", aminoAvg.getProbabilites(), PDBWrite.AMINO );
-				updateObservers("OK\n");
-			}catch(Exception ex){
-				updateObservers("Could not write PDB files: " + ex.getMessage() );
+			// Attempt to retrieve the corresponding filename from the list of pocket files 
+			String pocketFile = pocketProg.getPocketFileName( refFile );
+			
+			// Check a valid name was returned
+			if ( pocketFile != null ){
+				if( !pocketProg.isMultiFile() ){
+					// Add single pocket prediction file to list to be processed
+					pocketStructs.add(pocketFile);
+				}else{
+					// Add multiple pocket prediction files to list to be processed
+					pocketStructs.add( pocketFile );
+					// Pocket program stores pockets in separate PDB files, store all the names of these files
+					pocketStructs.addMultiPartFiles( pocketProg.getMultiplePocketFiles( refFile ) );
+				}	
 			}
+		}
+		
+		// Make sure there are the same number of reference structures as there are pocket structures 
+		if( conformers.getSize() != pocketStructs.getSize() ){
+			updateObservers( "Number of structure files and pocket files do not match" );
+			updateObservers( "There are " + conformers.getSize() + " reference structures and " + pocketStructs.getSize() + " pocket structures" );
 			
+		}else{
+			updateObservers( "Processing " + conformers.getSize() + " structures" );
 		}
-	}	
+		
+		return pocketStructs;
+	}
 	
-	// Get the file corresponding to a filename in the series of reference structure files
-	private int getSequenceFile( String filename ) {
+	// Calculate the probabilities of one pocket program for one pocket radius and write them to the probability and PDB files
+	private void writePocketData( PocketProgram pocketProg, PocketExtractor extracter, int progIndex, int radiusIndex, double pocketRadius ){
+		
+		// Calculate and display quantile data
+		updateObservers("Quantiles\t\t( 0.25, 0.5 ,0.75 ) for :" + pocketProg.getName() + " at " + pocketRadius + "A" );
+
+		ProbabilityCalculator atom = new ProbabilityCalculator( extracter.getAtomTotal( progIndex, radiusIndex ), conformers.getSize() );
+		double[] atomProb = atom.getQuantiles();
+		updateObservers("Atom\t\t: " + atomProb[0] + " " + atomProb[1] + " " + atomProb[2] );
+		
+		ArrayList<Double> zeroRemoved = new ArrayList<Double>();
+		for( Double num : extracter.getAtomTotal( progIndex, radiusIndex ) ){
+			if( num > 0.0 ){
+				zeroRemoved.add(num);
+			}
+		}
+		
+		// Calculate the probabilities for the atoms
+		ProbabilityCalculator atomAvg = new ProbabilityCalculator( zeroRemoved, conformers.getSize() );
+		double[] atomAvgProb = atomAvg.getQuantiles();
+		updateObservers("Atom normalised\t: " + atomAvgProb[0] + " " + atomAvgProb[1] + " " + atomAvgProb[2] );
+		
+		// Calculate the probabilities for the amino acids
+		ProbabilityCalculator amino = new ProbabilityCalculator( extracter.getAminoTotal( progIndex, radiusIndex ), conformers.getSize() );
+		double[] aminoProb = amino.getQuantiles();
+		updateObservers("Amino\t\t: " + aminoProb[0] + " " + aminoProb[1] + " " + aminoProb[2] );
+		
+		// Calculate the probabilities for the averaged amino acids
+		ProbabilityCalculator aminoAvg = new ProbabilityCalculator( extracter.getAminoAvgTotal( progIndex, radiusIndex ) , conformers.getSize() );
+		double[] aminoAvgProb = aminoAvg.getQuantiles();
+		updateObservers( "Amino average\t\t: " + aminoAvgProb[0] + " " + aminoAvgProb[1] + " " + aminoAvgProb[2] );
+		
+		updateObservers( "-----------------------------------------------------------------");
+		updateObservers( "Writing pocket data" );
 		
-		// Scan the filename for a number
-		Matcher match = refFileFormat.matcher( filename.toString() );
+		// Create a sub-directory to write the probability and PDB files to
+		StringBuilder pathAndFileName = new StringBuilder();
+		pathAndFileName.append(baseDir.toString() + File.separator + pocketProg.getAbrevName() + File.separator );
+		pathAndFileName.append(runId );
+		pathAndFileName.append("_" + pocketProg.getName());
+		
+		updateObservers("Creating sub-directory for: " + pocketProg.getName() );
+		updateObservers("Writing probability files..");
+		
+		try{
+			File pocketDir = new File( baseDir + File.separator + pocketProg.getAbrevName() );
+			if( !pocketDir.exists() ){
+				pocketDir.mkdirs();
+			}
+		}catch(Exception ex){
+			updateObservers("Unable to create base directory:" + ex.getMessage() );
+		}
+		
+		updateObservers("OK");
+		// Output the prediction file
+		
+		// Write probabilities to PB files for amino, atom, amino average
+		try{
+			// Amino
+			new PBWrite(pathAndFileName + "_p_amino_out_" + pocketRadius + "A-Radial.txt", amino.getProbabilites() );
 			
-		// First match the filename layout to ensure is number.pdb file
-		if( match.find() ){
+			// Atom
+			new PBWrite(pathAndFileName + "_p_ATOM_out_" + pocketRadius + "A-Radial.txt", atom.getProbabilites() );
 			
-			// Return the sequence number of this reference file
-			if( match.group(1).length() > 0 ){
-				return Integer.valueOf( String.valueOf( match.group(1) ) );
-			}
+			// Amino average
+			new PBWrite(pathAndFileName +"_p_amino_avg_by_atom_out_" + pocketRadius + "A-Radial.txt", aminoAvg.getProbabilites() );
+		}catch( IOException ex){
+			updateObservers("Could not write probability files: " + ex.getMessage() );
 		}
 		
-		return 0;
+		// Write PDB output files
+		updateObservers("Writing PDB files...");
+		
+		try{
+			// Atom
+			PDBWrite outAtomFile = new PDBWrite( refPDB.toString() );
+			outAtomFile.WritePDBFile(pathAndFileName + "_ATOM_out_" + pocketRadius + "A-Radial.pdb", atom.getProbabilites(), PDBWrite.ATOM );
+			
+			// Amino
+			PDBWrite outAminoFile = new PDBWrite( refPDB.toString() );
+			outAminoFile.WritePDBFile(pathAndFileName + "_amino_out_" + pocketRadius + "A-Radial.pdb", amino.getProbabilites(), PDBWrite.AMINO );
+			
+			// Amino
+			PDBWrite outAminoAvgFile = new PDBWrite( refPDB.toString() );
+			outAminoAvgFile.WritePDBFile(pathAndFileName + "_amino_avg_by_atom_out_" + pocketRadius + "A-Radial.pdb", aminoAvg.getProbabilites(), PDBWrite.AMINO );
+			updateObservers("OK\n");
+		}catch(Exception ex){
+			updateObservers("Could not write PDB files: " + ex.getMessage() );
+		}
 	}
 	
 	//Check that all the parameters passed in a valid
@@ -304,8 +445,9 @@ public class PocketProcessor implements Runnable, Observable, Observer {
 			throw new IllegalArgumentException("Reference PDB file does not exist or is not a file");
 		}
 		
-		if( ( !structureDir.exists() ) || ( !structureDir.isDirectory() ) ){
-			throw new IllegalArgumentException("Reference structure directory does not exist or is not a directory");
+		// A file rather than a directory holds all the reference structures as models
+		if( !structureDir.exists() ){
+			throw new IllegalArgumentException("Reference structure directory or ensemble file does not exist");
 		}
 		
 		if( ( ( refFileFormat == null ) || ( refFileFormat.equals("") ) ) ){
@@ -317,6 +459,17 @@ public class PocketProcessor implements Runnable, Observable, Observer {
 		}
 	}
 
+	/**
+	 * 
+	 * @param options tuning options to use for this run
+	 */
+	public void setOptions( ProvarOptions options ){
+		this.options = options;
+		
+		// The trajectory frames used depend on the options
+		loadRefStructures();
+	}
+	
 	@Override
 	public void addObserver(Observer observer) {
 		observers.add( observer );
@@ -335,26 +488,33 @@ public class PocketProcessor implements Runnable, Observable, Observer {
 		updateObservers(msg);
 	}
 	
-	private void loadRefStructures(){
+	private void loadRefStructures() throws IllegalArgumentException{
 		
-		refStructs = new ArrayList<String>();
-		
-		// Get all files within the reference structure directory
-		String[] refFilenames = structureDir.list();
-		
-		// Iterate over the list and store those that belong to that have correct format
-		// in the case of conformers it will contain a number
-		for( String filename : refFilenames ){
-			
-			// First match the filename layout to ensure is number.pdb file
-			Matcher match = refFileFormat.matcher( filename.toString() );
-			
-			// If a match is found add it to the list of reference structures
-			if( match.find() ){
-				if( match.group(1).length() > 0 ){
-					refStructs.add( structureDir + File.separator + filename );
-				}
+		// Conformers are either the frames of a trajectory, the models of a single ensemble file or each in their own
+		// file in the directory
+		if( structureDir.isFile() && structureDir.getName().toLowerCase().endsWith(".dcd") ){
+			try{
+				conformers = new DCDConformerSource( structureDir, refPDB, PDBReaderFactory.CreatePDBReader( options.getPdbReader() ),
+						options.getFirstFrame(), options.getLastFrame(), options.getFrameStride() );
+			}catch( IOException ex ){
+				throw new IllegalArgumentException("Unable to read the trajectory " + structureDir + ": " + ex.getMessage() );
+			}
+		}else if( structureDir.isFile() ){
+			try{
+				conformers = new MultiModelConformerSource( structureDir );
+			}catch( IOException ex ){
+				throw new IllegalArgumentException("Unable to read the models in " + structureDir + ": " + ex.getMessage() );
 			}
+		}else{
+			conformers = new PDBFileConformerSource( structureDir, refFileFormat );
+		}
+		
+		// Later runs over the same conformers read their coordinates from the cache rather than parsing them again.  The
+		// frames of a trajectory are already binary at fixed offsets, so caching them would only double their size.
+		if( options.isEnsembleCache() && !( conformers instanceof DCDConformerSource ) ){
+			File cacheFile = new File( outRootDir, "provarj-" + structureDir.getName() + "-" +
+					Integer.toHexString( structureDir.getAbsolutePath().hashCode() ) + ".cache" );
+			conformers = new CachedConformerSource( conformers, refPDB, cacheFile );
 		}
 	}
 
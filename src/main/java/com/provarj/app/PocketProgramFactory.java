@@ -16,7 +16,7 @@ final public class PocketProgramFactory {
 		if( runType.equals( "CONF" ) ){
 			// Determine the type of pocket program and create a pocket program filled out with the appropriate settings
 			if(name.equals( "PASS" ) ){
-				newProg = new singleFilePocketProgram("PASS", "PA", runType, pocketDir, Pattern.compile("([0-9]*)_probes.pdb"), false, false );
+				newProg = new singleFilePocketProgram("PASS", "PA", runType, pocketDir, Pattern.compile("([0-9]*)_probes.(pdb|cif)"), false, false );
 			}else if(name == "fPocket"){
 				newProg = new multiFilePocketProgram("fPocket", "FD", runType, pocketDir, "pockets", Pattern.compile("([0-9]*)_out"), true, true );
 			}else if(name == "Ligsite"){
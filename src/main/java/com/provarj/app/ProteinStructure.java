@@ -4,6 +4,19 @@ import java.util.List;
 // Interface for a protein structure, this may be used to implement PDB or perhaps mmcif file readers
 public interface ProteinStructure {
 
+	// Columns of the atom data, combined to choose which are read from a structure file, see PDBStructure
+	public static final int COLUMN_XYZ = 1;
+	public static final int COLUMN_SERIAL_NO = 2;
+	public static final int COLUMN_RESIDUE_SEQ_NO = 4;
+	public static final int COLUMN_ATOM_NAME = 8;
+	public static final int COLUMN_ELEMENT = 16;
+	public static final int COLUMN_RESIDUE_NAME = 32;
+	public static final int COLUMN_CHAIN_ID = 64;
+	public static final int COLUMN_ALL = 127;
+	
+	// Columns used by the PocketFinder for a reference structure or conformer
+	public static final int COLUMNS_POCKET_SEARCH = COLUMN_XYZ | COLUMN_SERIAL_NO | COLUMN_RESIDUE_SEQ_NO;
+
 	/**
 	 * 
 	 * @return total number of atoms in the structure
@@ -16,12 +29,36 @@ public interface ProteinStructure {
 	 */
 	public List<double[]> getAtomXYZ();
 	
+	/**
+	 * 
+	 * @return X coordinate of each atom in the structure, the array holds exactly one entry per atom
+	 */
+	public double[] getAtomX();
+	
+	/**
+	 * 
+	 * @return Y coordinate of each atom in the structure, the array holds exactly one entry per atom
+	 */
+	public double[] getAtomY();
+	
+	/**
+	 * 
+	 * @return Z coordinate of each atom in the structure, the array holds exactly one entry per atom
+	 */
+	public double[] getAtomZ();
+	
 	/**
 	 * 
 	 * @return list with all the atom numbers in series
 	 */
 	public List<Integer> getAtomSerNos();
 	
+	/**
+	 * 
+	 * @return array with all the atom numbers in series
+	 */
+	public int[] getAtomSerNoArray();
+	
 	/**
 	 * 
 	 * @return list with all the names for each atom i.e. C, H, O in series 
@@ -34,6 +71,12 @@ public interface ProteinStructure {
 	 */
 	public List<Integer> getResidueSeqNo();
 	
+	/**
+	 *  
+	 * @return array containing the residues number that each atom belongs too
+	 */
+	public int[] getResidueSeqNoArray();
+	
 	/**
 	 * 
 	 * @return list containing the residues name (3 letter code) for each atom
@@ -98,7 +98,7 @@ public class ProvarController implements Controller {
 												gui.getBaseDir(), 
 												gui.getPdbRefName(),
 												gui.getRefStructDir(),
-												Pattern.compile( "([0-9]*).pdb" ),
+												Pattern.compile( "([0-9]*).(pdb|cif)" ),
 												pocketProgs );
 			// Set up 'subscribers' to listen for messages
 			newProcess.addObserver( this.gui );
@@ -0,0 +1,506 @@
+package com.provar.app;
+
+import java.util.Arrays;
+
+// Tuning options for a Provar run.  Apart from the choice of trajectory frames, which changes the conformers used, and
+// the sweep of pocket radii, which changes the radii results and files are produced for, these do not change what is
+// calculated, only how it is calculated, so they are kept apart from the run parameters passed to the PocketProcessor.
+// Defaults can be overridden with system properties e.g. -Dprovarj.neighbourSearch=kdtree
+public class ProvarOptions {
+
+	private String neighbourSearch;		// Strategy used to find pocket probes near each atom, see NeighbourSearchFactory
+	private String directLookup;		// How direct pocket atoms are matched to the structure, see PocketFinder
+	private String distanceKernel;		// Distance test used by the pocket search, see DistanceKernelFactory
+	private double[] pocketRadii;		// Sweep of pocket radii searched in one pass, null to search just the run's pocket radius
+	private String searchDirection;		// Search outwards from the atoms, the probes or choose automatically, see PocketFinder
+	private double probeAtomRatio;		// Probe to atom ratio at or below which the automatic choice searches from the probes
+	private String pdbReader;			// Parser used to read the PDB files, see PDBReaderFactory
+	private boolean sharedTopology;		// Read only the coordinates of conformers, sharing the atom details of the reference
+	private int firstFrame;				// First trajectory frame used as a conformer, counting from 1
+	private int lastFrame;				// Last trajectory frame used as a conformer, 0 for the end of the trajectory
+	private int frameStride;			// Use every frameStride'th trajectory frame from the first frame
+	private boolean ensembleCache;		// Keep a binary cache of the conformer coordinates in the output directory
+	private int threads;				// Threads searching conformers for pockets, 0 for one per processor
+	private int readThreads;			// Threads reading the files of each conformer into memory
+	private int parseThreads;			// Threads parsing the files of each conformer
+	private int pipelineDepth;			// Conformers queued between each pipeline stage, 0 to process them in turn
+	private boolean fusedPrograms;		// Search every pocket program's pockets in one pass over the conformers
+	private int checkpointInterval;		// Seconds between checkpoints of the totals in the run directory, 0 for none
+	private boolean resume;				// Carry on from the checkpoints in an existing run directory
+
+	public ProvarOptions(){
+		neighbourSearch = NeighbourSearchFactory.GRID;
+		directLookup = PocketFinder.DIRECT_BITSET;
+		distanceKernel = DistanceKernelFactory.SCALAR;
+		searchDirection = PocketFinder.SEARCH_AUTO;
+		probeAtomRatio = PocketFinder.DEFAULT_PROBE_ATOM_RATIO;
+		pdbReader = PDBReaderFactory.NATIVE;
+		sharedTopology = true;
+		firstFrame = 1;
+		lastFrame = 0;
+		frameStride = 1;
+		ensembleCache = false;
+		threads = 1;
+		readThreads = 1;
+		parseThreads = 1;
+		pipelineDepth = 4;
+		fusedPrograms = true;
+		checkpointInterval = 60;
+		resume = false;
+	}
+
+	/**
+	 *
+	 * @return options with defaults overridden by any provarj.* system properties that have been set
+	 */
+	public static ProvarOptions fromSystemProperties(){
+
+		ProvarOptions options = new ProvarOptions();
+
+		String value = System.getProperty( "provarj.neighbourSearch" );
+		if( value != null ){
+			options.setNeighbourSearch( value );
+		}
+		
+		value = System.getProperty( "provarj.directLookup" );
+		if( value != null ){
+			options.setDirectLookup( value );
+		}
+		
+		value = System.getProperty( "provarj.distanceKernel" );
+		if( value != null ){
+			options.setDistanceKernel( value );
+		}
+		
+		value = System.getProperty( "provarj.pocketRadii" );
+		if( value != null ){
+			String[] radii = value.split( "," );
+			double[] pocketRadii = new double[radii.length];
+			for( int i = 0; i < radii.length; i++ ){
+				pocketRadii[i] = Double.parseDouble( radii[i].trim() );
+			}
+			options.setPocketRadii( pocketRadii );
+		}
+		
+		value = System.getProperty( "provarj.searchDirection" );
+		if( value != null ){
+			options.setSearchDirection( value );
+		}
+		
+		value = System.getProperty( "provarj.probeAtomRatio" );
+		if( value != null ){
+			options.setProbeAtomRatio( Double.parseDouble( value ) );
+		}
+		
+		value = System.getProperty( "provarj.pdbReader" );
+		if( value != null ){
+			options.setPdbReader( value );
+		}
+		
+		value = System.getProperty( "provarj.sharedTopology" );
+		if( value != null ){
+			options.setSharedTopology( Boolean.parseBoolean( value ) );
+		}
+		
+		value = System.getProperty( "provarj.firstFrame" );
+		if( value != null ){
+			options.setFirstFrame( Integer.parseInt( value.trim() ) );
+		}
+		
+		value = System.getProperty( "provarj.lastFrame" );
+		if( value != null ){
+			options.setLastFrame( Integer.parseInt( value.trim() ) );
+		}
+		
+		value = System.getProperty( "provarj.frameStride" );
+		if( value != null ){
+			options.setFrameStride( Integer.parseInt( value.trim() ) );
+		}
+		
+		value = System.getProperty( "provarj.ensembleCache" );
+		if( value != null ){
+			options.setEnsembleCache( Boolean.parseBoolean( value ) );
+		}
+		
+		value = System.getProperty( "provarj.threads" );
+		if( value != null ){
+			options.setThreads( Integer.parseInt( value.trim() ) );
+		}
+		
+		value = System.getProperty( "provarj.readThreads" );
+		if( value != null ){
+			options.setReadThreads( Integer.parseInt( value.trim() ) );
+		}
+		
+		value = System.getProperty( "provarj.parseThreads" );
+		if( value != null ){
+			options.setParseThreads( Integer.parseInt( value.trim() ) );
+		}
+		
+		value = System.getProperty( "provarj.pipelineDepth" );
+		if( value != null ){
+			options.setPipelineDepth( Integer.parseInt( value.trim() ) );
+		}
+		
+		value = System.getProperty( "provarj.fusedPrograms" );
+		if( value != null ){
+			options.setFusedPrograms( Boolean.parseBoolean( value ) );
+		}
+		
+		value = System.getProperty( "provarj.checkpointInterval" );
+		if( value != null ){
+			options.setCheckpointInterval( Integer.parseInt( value.trim() ) );
+		}
+		
+		value = System.getProperty( "provarj.resume" );
+		if( value != null ){
+			options.setResume( Boolean.parseBoolean( value ) );
+		}
+
+		return options;
+	}
+
+	/**
+	 *
+	 * @return name of the strategy used to search the pocket probes, grid, kdtree or scan for the legacy full scan
+	 */
+	public String getNeighbourSearch(){
+		return neighbourSearch;
+	}
+
+	/**
+	 *
+	 * @param neighbourSearch name of the strategy used to search the pocket probes, grid, kdtree or scan
+	 */
+	public void setNeighbourSearch( String neighbourSearch ){
+		this.neighbourSearch = neighbourSearch;
+	}
+
+	/**
+	 *
+	 * @return how direct pocket atoms are matched to the atoms in the structure, bitset or bulk
+	 */
+	public String getDirectLookup(){
+		return directLookup;
+	}
+
+	/**
+	 *
+	 * @param directLookup how direct pocket atoms are matched to the atoms in the structure, bitset or bulk
+	 */
+	public void setDirectLookup( String directLookup ){
+		this.directLookup = directLookup;
+	}
+
+	/**
+	 *
+	 * @return name of the distance test used by the pocket search, scalar or vector
+	 */
+	public String getDistanceKernel(){
+		return distanceKernel;
+	}
+
+	/**
+	 *
+	 * @param distanceKernel name of the distance test used by the pocket search, scalar or vector
+	 */
+	public void setDistanceKernel( String distanceKernel ){
+		this.distanceKernel = distanceKernel;
+	}
+
+	/**
+	 *
+	 * @return radii searched in one pass in ascending order, or null to search just the run's pocket radius
+	 */
+	public double[] getPocketRadii(){
+		return pocketRadii;
+	}
+
+	/**
+	 *
+	 * @param pocketRadii radii to search in one pass, or null to search just the run's pocket radius
+	 */
+	public void setPocketRadii( double[] pocketRadii ){
+		
+		if( pocketRadii == null ){
+			this.pocketRadii = null;
+			return;
+		}
+		
+		if( pocketRadii.length == 0 ){
+			throw new IllegalArgumentException("No pocket radii given");
+		}
+		
+		// The pocket finder bins each atom against the radii in ascending order
+		this.pocketRadii = pocketRadii.clone();
+		Arrays.sort( this.pocketRadii );
+		
+		if( this.pocketRadii[0] <= 0.0 ){
+			throw new IllegalArgumentException("Pocket radii must be greater than zero");
+		}
+	}
+
+	/**
+	 *
+	 * @return direction of the pocket search, atoms, probes or auto to choose from the probe to atom ratio
+	 */
+	public String getSearchDirection(){
+		return searchDirection;
+	}
+
+	/**
+	 *
+	 * @param searchDirection direction of the pocket search, atoms, probes or auto to choose from the probe to atom ratio
+	 */
+	public void setSearchDirection( String searchDirection ){
+		this.searchDirection = searchDirection;
+	}
+
+	/**
+	 *
+	 * @return probe to atom ratio at or below which the automatic choice searches outwards from the probes
+	 */
+	public double getProbeAtomRatio(){
+		return probeAtomRatio;
+	}
+
+	/**
+	 *
+	 * @param probeAtomRatio probe to atom ratio at or below which the automatic choice searches outwards from the probes
+	 */
+	public void setProbeAtomRatio( double probeAtomRatio ){
+		this.probeAtomRatio = probeAtomRatio;
+	}
+
+	/**
+	 *
+	 * @return name of the parser used to read the PDB files, native, mapped or biojava
+	 */
+	public String getPdbReader(){
+		return pdbReader;
+	}
+
+	/**
+	 *
+	 * @param pdbReader name of the parser used to read the PDB files, native, mapped or biojava
+	 */
+	public void setPdbReader( String pdbReader ){
+		this.pdbReader = pdbReader;
+	}
+
+	/**
+	 *
+	 * @return true if conformers only have their coordinates read, sharing the atom details of the reference structure
+	 */
+	public boolean isSharedTopology(){
+		return sharedTopology;
+	}
+
+	/**
+	 *
+	 * @param sharedTopology true to only read the coordinates of conformers, sharing the atom details of the reference structure
+	 */
+	public void setSharedTopology( boolean sharedTopology ){
+		this.sharedTopology = sharedTopology;
+	}
+
+	/**
+	 *
+	 * @return first trajectory frame used as a conformer, counting from 1
+	 */
+	public int getFirstFrame(){
+		return firstFrame;
+	}
+
+	/**
+	 *
+	 * @param firstFrame first trajectory frame used as a conformer, counting from 1
+	 */
+	public void setFirstFrame( int firstFrame ){
+		if( firstFrame < 1 ){
+			throw new IllegalArgumentException("First frame must be 1 or more");
+		}
+		this.firstFrame = firstFrame;
+	}
+
+	/**
+	 *
+	 * @return last trajectory frame used as a conformer, 0 for the end of the trajectory
+	 */
+	public int getLastFrame(){
+		return lastFrame;
+	}
+
+	/**
+	 *
+	 * @param lastFrame last trajectory frame used as a conformer, 0 for the end of the trajectory
+	 */
+	public void setLastFrame( int lastFrame ){
+		if( lastFrame < 0 ){
+			throw new IllegalArgumentException("Last frame must be 0 or more");
+		}
+		this.lastFrame = lastFrame;
+	}
+
+	/**
+	 *
+	 * @return number of trajectory frames moved on between each conformer used
+	 */
+	public int getFrameStride(){
+		return frameStride;
+	}
+
+	/**
+	 *
+	 * @param frameStride number of trajectory frames moved on between each conformer used
+	 */
+	public void setFrameStride( int frameStride ){
+		if( frameStride < 1 ){
+			throw new IllegalArgumentException("Frame stride must be 1 or more");
+		}
+		this.frameStride = frameStride;
+	}
+
+	/**
+	 *
+	 * @return true if the conformer coordinates are kept in a binary cache for later runs
+	 */
+	public boolean isEnsembleCache(){
+		return ensembleCache;
+	}
+
+	/**
+	 *
+	 * @param ensembleCache true to keep the conformer coordinates in a binary cache for later runs
+	 */
+	public void setEnsembleCache( boolean ensembleCache ){
+		this.ensembleCache = ensembleCache;
+	}
+
+	/**
+	 *
+	 * @return number of threads searching conformers for pockets, 0 for one per processor
+	 */
+	public int getThreads(){
+		return threads;
+	}
+
+	/**
+	 *
+	 * @param threads number of threads searching conformers for pockets, 0 for one per processor
+	 */
+	public void setThreads( int threads ){
+		if( threads < 0 ){
+			throw new IllegalArgumentException("Threads must be 0 or more");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 *
+	 * @return number of threads reading the files of each conformer into memory
+	 */
+	public int getReadThreads(){
+		return readThreads;
+	}
+
+	/**
+	 *
+	 * @param readThreads number of threads reading the files of each conformer into memory
+	 */
+	public void setReadThreads( int readThreads ){
+		if( readThreads < 1 ){
+			throw new IllegalArgumentException("Read threads must be 1 or more");
+		}
+		this.readThreads = readThreads;
+	}
+
+	/**
+	 *
+	 * @return number of threads parsing the files of each conformer
+	 */
+	public int getParseThreads(){
+		return parseThreads;
+	}
+
+	/**
+	 *
+	 * @param parseThreads number of threads parsing the files of each conformer
+	 */
+	public void setParseThreads( int parseThreads ){
+		if( parseThreads < 1 ){
+			throw new IllegalArgumentException("Parse threads must be 1 or more");
+		}
+		this.parseThreads = parseThreads;
+	}
+
+	/**
+	 *
+	 * @return number of conformers queued between each stage of the pipeline, 0 to process them in turn on one thread
+	 */
+	public int getPipelineDepth(){
+		return pipelineDepth;
+	}
+
+	/**
+	 *
+	 * @param pipelineDepth number of conformers queued between each stage of the pipeline, 0 to process them in turn on one thread
+	 */
+	public void setPipelineDepth( int pipelineDepth ){
+		if( pipelineDepth < 0 ){
+			throw new IllegalArgumentException("Pipeline depth must be 0 or more");
+		}
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	/**
+	 *
+	 * @return true if the conformers are read once for all the pocket programs rather than once for each
+	 */
+	public boolean isFusedPrograms(){
+		return fusedPrograms;
+	}
+
+	/**
+	 *
+	 * @param fusedPrograms true to search every pocket program's pockets in one pass over the conformers
+	 */
+	public void setFusedPrograms( boolean fusedPrograms ){
+		this.fusedPrograms = fusedPrograms;
+	}
+
+	/**
+	 *
+	 * @return seconds between checkpoints of the totals in the run directory, 0 for no checkpoints
+	 */
+	public int getCheckpointInterval(){
+		return checkpointInterval;
+	}
+
+	/**
+	 *
+	 * @param checkpointInterval seconds between checkpoints of the totals in the run directory, 0 for no checkpoints
+	 */
+	public void setCheckpointInterval( int checkpointInterval ){
+		if( checkpointInterval < 0 ){
+			throw new IllegalArgumentException("Checkpoint interval must be 0 or more");
+		}
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 *
+	 * @return true if a run carries on from the checkpoints in an existing run directory
+	 */
+	public boolean isResume(){
+		return resume;
+	}
+
+	/**
+	 *
+	 * @param resume true to carry on from the checkpoints in an existing run directory rather than refusing to use it
+	 */
+	public void setResume( boolean resume ){
+		this.resume = resume;
+	}
+}
@@ -0,0 +1,97 @@
+package com.provar.app;
+
+import java.util.Arrays;
+
+// Index of which atoms belong to each residue, worked out once for a reference topology and shared by all the
+// conformers that have the same residue numbering.  Residue numbers start at 1 so residue r is stored at r - 1.
+public class ResidueIndex {
+
+	private final int[] residueSeqNo;		// Copy of the residue number of each atom the index was built from
+	private final int maxRes;
+	
+	private final int[] atomCount;			// Number of atoms in each residue
+	private final int[] atomStart;			// Position in residueAtoms of the first atom of each residue, one extra entry at the end
+	private final int[] residueAtoms;		// Atom indexes grouped by residue, in atom order within each residue
+	
+	/**
+	 * 
+	 * @param residueSeqNo residue number of each atom in the structure
+	 * @param maxRes number of residue slots, residue numbers from 1 to maxRes - 1 are indexed
+	 */
+	public ResidueIndex( int[] residueSeqNo, int maxRes ){
+		
+		this.residueSeqNo = residueSeqNo.clone();
+		this.maxRes = maxRes;
+		
+		atomCount = new int[maxRes];
+		atomStart = new int[maxRes + 1];
+		
+		// Count the atoms in each residue, atoms with residue numbers outside the range are left out
+		int indexed = 0;
+		for( int resNo : residueSeqNo ){
+			if( resNo > 0 && resNo <= maxRes ){
+				atomCount[resNo - 1]++;
+				indexed++;
+			}
+		}
+		
+		for( int i = 0; i < maxRes; i++ ){
+			atomStart[i + 1] = atomStart[i] + atomCount[i];
+		}
+		
+		// Group the atoms by residue
+		residueAtoms = new int[indexed];
+		int[] next = Arrays.copyOf( atomStart, maxRes );
+		for( int i = 0; i < residueSeqNo.length; i++ ){
+			int resNo = residueSeqNo[i];
+			if( resNo > 0 && resNo <= maxRes ){
+				residueAtoms[ next[resNo - 1]++ ] = i;
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 * @param residueSeqNo residue number of each atom in a structure
+	 * @param maxRes number of residue slots of the structure
+	 * @return true if the structure has the same residue numbering as the one this index was built from
+	 */
+	public boolean matches( int[] residueSeqNo, int maxRes ){
+		return ( this.maxRes == maxRes ) && Arrays.equals( this.residueSeqNo, residueSeqNo );
+	}
+	
+	/**
+	 * 
+	 * @param resNo residue number, starting at 1
+	 * @return number of atoms in the residue
+	 */
+	public int getAtomCount( int resNo ){
+		return atomCount[resNo - 1];
+	}
+	
+	/**
+	 * 
+	 * @param resNo residue number, starting at 1
+	 * @return position in getResidueAtoms() of the first atom of the residue
+	 */
+	public int getAtomStart( int resNo ){
+		return atomStart[resNo - 1];
+	}
+	
+	/**
+	 * 
+	 * @param resNo residue number, starting at 1
+	 * @return position in getResidueAtoms() after the last atom of the residue
+	 */
+	public int getAtomEnd( int resNo ){
+		return atomStart[resNo];
+	}
+	
+	/**
+	 * 
+	 * @return atom indexes grouped by residue, the atoms of a residue run from getAtomStart() to getAtomEnd()
+	 */
+	public int[] getResidueAtoms(){
+		return residueAtoms;
+	}
+}
@@ -0,0 +1,248 @@
+package com.provar.app;
+
+import java.util.Arrays;
+
+// Uniform grid (cell list) over the pocket probe coordinates of a single structure.  The cell edge is at least the
+// pocket radius, so any probe within the radius of an atom must lie in one of the 27 cells around the atom's cell.
+// For probe-centric searches the same grid is built over the protein atoms and searched from each probe.
+public class SpatialGrid implements NeighbourSearch {
+
+	// Upper bound on the number of cells per probe, stops sparse probe sets spread over a large box allocating
+	// millions of empty cells.  The cell size is grown until the grid fits.
+	private static final int MAX_CELLS_PER_PROBE = 8;
+
+	private double cellSize;
+	private double minX, minY, minZ;
+	private int cellsX, cellsY, cellsZ;
+
+	private int[] cellStart;			// Index into the probe arrays of the first probe of each cell, one extra entry at the end
+	private int[] cellOfProbe;			// Cell each probe was binned into
+	private double[] probeX;			// Probe coordinates ordered by cell
+	private double[] probeY;
+	private double[] probeZ;
+	private int[] probeIndex;			// Position of each probe, ordered by cell, in the arrays passed to build
+	private int probeCount;
+
+	// Range of cells around the point being searched, set by setNeighbourCells
+	private int fromX, toX, fromY, toY, fromZ, toZ;
+
+	private final DistanceKernel kernel;	// Distance test run over the probes of each cell
+
+	public SpatialGrid(){
+		this( new DistanceKernel() );
+	}
+
+	/**
+	 *
+	 * @param kernel distance test to run over the probes of each cell
+	 */
+	public SpatialGrid( DistanceKernel kernel ){
+		this.kernel = kernel;
+	}
+
+	/**
+	 *
+	 * @param x X coordinates of the pocket probes
+	 * @param y Y coordinates of the pocket probes
+	 * @param z Z coordinates of the pocket probes
+	 * @param count number of pocket probes
+	 * @param radius pocket radius, used as the smallest cell edge
+	 */
+	@Override
+	public void build( double[] x, double[] y, double[] z, int count, double radius ){
+
+		probeCount = count;
+
+		// Re-use the arrays from the last structure where they are big enough
+		if( ( probeX == null ) || ( probeX.length < probeCount ) ){
+			probeX = new double[probeCount];
+			probeY = new double[probeCount];
+			probeZ = new double[probeCount];
+			cellOfProbe = new int[probeCount];
+			probeIndex = new int[probeCount];
+		}
+
+		if( probeCount == 0 ){
+			cellsX = cellsY = cellsZ = 0;
+			return;
+		}
+
+		// Find the bounding box of the probes
+		double maxX, maxY, maxZ;
+		minX = maxX = x[0];
+		minY = maxY = y[0];
+		minZ = maxZ = z[0];
+
+		for( int i = 1; i < probeCount; i++ ){
+			minX = Math.min( minX, x[i] );
+			maxX = Math.max( maxX, x[i] );
+			minY = Math.min( minY, y[i] );
+			maxY = Math.max( maxY, y[i] );
+			minZ = Math.min( minZ, z[i] );
+			maxZ = Math.max( maxZ, z[i] );
+		}
+
+		// Size the grid, growing the cells if there would be too many of them
+		cellSize = radius;
+		long maxCells = (long)probeCount * MAX_CELLS_PER_PROBE + 27;
+		while( true ){
+			cellsX = (int)( ( maxX - minX ) / cellSize ) + 1;
+			cellsY = (int)( ( maxY - minY ) / cellSize ) + 1;
+			cellsZ = (int)( ( maxZ - minZ ) / cellSize ) + 1;
+			if( (long)cellsX * cellsY * cellsZ <= maxCells ){
+				break;
+			}
+			cellSize *= 2;
+		}
+
+		int noOfCells = cellsX * cellsY * cellsZ;
+		if( ( cellStart == null ) || ( cellStart.length < noOfCells + 1 ) ){
+			cellStart = new int[noOfCells + 1];
+		}else{
+			Arrays.fill( cellStart, 0, noOfCells + 1, 0 );
+		}
+
+		// Counting sort of the probes into their cells, first count the probes in each cell
+		for( int i = 0; i < probeCount; i++ ){
+			int cell = cellIndex( cellCoord( x[i], minX, cellsX ), cellCoord( y[i], minY, cellsY ), cellCoord( z[i], minZ, cellsZ ) );
+			cellOfProbe[i] = cell;
+			cellStart[cell + 1]++;
+		}
+
+		// Turn the counts into start positions
+		for( int cell = 0; cell < noOfCells; cell++ ){
+			cellStart[cell + 1] += cellStart[cell];
+		}
+
+		// Place each probe in its cell, this advances each start to the start of the next cell so shift them back after
+		for( int i = 0; i < probeCount; i++ ){
+			int slot = cellStart[ cellOfProbe[i] ]++;
+			probeX[slot] = x[i];
+			probeY[slot] = y[i];
+			probeZ[slot] = z[i];
+			probeIndex[slot] = i;
+		}
+
+		for( int cell = noOfCells; cell > 0; cell-- ){
+			cellStart[cell] = cellStart[cell - 1];
+		}
+		cellStart[0] = 0;
+	}
+
+	/**
+	 *
+	 * @param x X coordinate of the atom on the protein
+	 * @param y Y coordinate of the atom on the protein
+	 * @param z Z coordinate of the atom on the protein
+	 * @param radius pocket radius, must not be larger than the radius the grid was built with
+	 * @return true if any probe lies closer to the atom than the radius
+	 */
+	@Override
+	public boolean anyWithin( double x, double y, double z, double radius ){
+
+		if( !setNeighbourCells( x, y, z ) ){
+			return false;
+		}
+
+		double radiusSq = radius * radius;
+
+		for( int gx = fromX; gx <= toX; gx++ ){
+			for( int gy = fromY; gy <= toY; gy++ ){
+				for( int gz = fromZ; gz <= toZ; gz++ ){
+
+					int cell = cellIndex( gx, gy, gz );
+
+					// Stop at the first cell with a probe within the radius
+					if( kernel.anyWithin( probeX, probeY, probeZ, cellStart[cell], cellStart[cell + 1], x, y, z, radiusSq ) ){
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 * @param x X coordinate of the atom on the protein
+	 * @param y Y coordinate of the atom on the protein
+	 * @param z Z coordinate of the atom on the protein
+	 * @param radius largest distance of interest, must not be larger than the radius the grid was built with
+	 * @return squared distance to the nearest probe if it is closer than the radius, otherwise at least the radius squared
+	 */
+	@Override
+	public double nearestDistanceSq( double x, double y, double z, double radius ){
+
+		double nearestSq = radius * radius;
+
+		if( !setNeighbourCells( x, y, z ) ){
+			return nearestSq;
+		}
+
+		for( int gx = fromX; gx <= toX; gx++ ){
+			for( int gy = fromY; gy <= toY; gy++ ){
+				for( int gz = fromZ; gz <= toZ; gz++ ){
+					int cell = cellIndex( gx, gy, gz );
+					nearestSq = kernel.nearestDistanceSq( probeX, probeY, probeZ, cellStart[cell], cellStart[cell + 1], x, y, z, nearestSq );
+				}
+			}
+		}
+		return nearestSq;
+	}
+
+	/**
+	 *
+	 * @param x X coordinate of the probe
+	 * @param y Y coordinate of the probe
+	 * @param z Z coordinate of the probe
+	 * @param radius largest distance of interest, must not be larger than the radius the grid was built with
+	 * @param nearestSq squared distance from each point in the grid to its nearest probe so far, lowered where this probe is nearer
+	 */
+	@Override
+	public void updateNearest( double x, double y, double z, double radius, double[] nearestSq ){
+
+		if( !setNeighbourCells( x, y, z ) ){
+			return;
+		}
+
+		for( int gx = fromX; gx <= toX; gx++ ){
+			for( int gy = fromY; gy <= toY; gy++ ){
+				for( int gz = fromZ; gz <= toZ; gz++ ){
+					int cell = cellIndex( gx, gy, gz );
+					kernel.updateNearest( probeX, probeY, probeZ, probeIndex, cellStart[cell], cellStart[cell + 1], x, y, z, nearestSq );
+				}
+			}
+		}
+	}
+
+	// Work out the range of the 27 cells around a point that lie inside the grid, false if there are none
+	private boolean setNeighbourCells( double x, double y, double z ){
+
+		if( probeCount == 0 ){
+			return false;
+		}
+
+		// Cell containing the point, this may lie outside the grid
+		int cx = (int)Math.floor( ( x - minX ) / cellSize );
+		int cy = (int)Math.floor( ( y - minY ) / cellSize );
+		int cz = (int)Math.floor( ( z - minZ ) / cellSize );
+
+		fromX = Math.max( cx - 1, 0 );
+		toX = Math.min( cx + 1, cellsX - 1 );
+		fromY = Math.max( cy - 1, 0 );
+		toY = Math.min( cy + 1, cellsY - 1 );
+		fromZ = Math.max( cz - 1, 0 );
+		toZ = Math.min( cz + 1, cellsZ - 1 );
+
+		return ( fromX <= toX ) && ( fromY <= toY ) && ( fromZ <= toZ );
+	}
+
+	// Cell along one axis for a coordinate inside the bounding box
+	private int cellCoord( double coord, double min, int cells ){
+		return Math.min( (int)( ( coord - min ) / cellSize ), cells - 1 );
+	}
+
+	private int cellIndex( int x, int y, int z ){
+		return ( x * cellsY + y ) * cellsZ + z;
+	}
+}
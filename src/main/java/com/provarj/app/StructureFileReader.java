@@ -0,0 +1,108 @@
+package com.provar.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Reads each structure file with the reader for its format, mmCIF files (.cif or .cif.gz) with the MMCIFReader and
+// every other file with the PDB reader chosen for the run.  Gzip compressed files of either format are decompressed
+// as they are read.  The contents of a file may be handed over already read into memory with addFileBytes, in which
+// case they are parsed the next time the file is read rather than reading the file again, unless the PDB reader is
+// the BioJava reader which always reads the file itself.
+public class StructureFileReader implements PDBReader {
+
+	private final PDBReader pdbReader;
+	private final MMCIFReader cifReader = new MMCIFReader();
+
+	// Contents of files already read into memory, each used once
+	private final Map<File, byte[]> fileBytes = new HashMap<File, byte[]>();
+
+	/**
+	 *
+	 * @param pdbReader reader used for PDB files
+	 */
+	public StructureFileReader( PDBReader pdbReader ){
+		this.pdbReader = pdbReader;
+	}
+
+	/**
+	 *
+	 * @param structureFile PDB or mmCIF file to read
+	 * @param structure structure to pass each atom record read from the first model to
+	 * @throws IOException
+	 */
+	@Override
+	public void readAtoms( File structureFile, AtomRecordHandler structure ) throws IOException{
+		if( structureFile.getName().toLowerCase().endsWith(".zst") ){
+			throw new IOException("Zstandard compressed files are not supported, please decompress " + structureFile + " or compress it with gzip");
+		}
+		byte[] bytes = fileBytes.remove( structureFile );
+		if( bytes != null ){
+			if( isMMCIF( structureFile ) ){
+				cifReader.readAtoms( structureFile, bytes, structure );
+				return;
+			}else if( pdbReader instanceof NativePDBReader ){
+				( (NativePDBReader)pdbReader ).readAtoms( structureFile, bytes, structure );
+				return;
+			}
+		}
+
+		if( isMMCIF( structureFile ) ){
+			cifReader.readAtoms( structureFile, structure );
+		}else{
+			pdbReader.readAtoms( structureFile, structure );
+		}
+	}
+
+	/**
+	 *
+	 * @param file structure file
+	 * @param bytes contents of the file, decompressed if it is compressed, to parse the next time the file is read
+	 */
+	public void addFileBytes( File file, byte[] bytes ){
+		fileBytes.put( file, bytes );
+	}
+
+	/**
+	 *
+	 * @param file structure file
+	 * @return true if contents of the file handed over with addFileBytes are parsed, rather than the file being read
+	 */
+	public boolean canReadBytes( File file ){
+		return isMMCIF( file ) || ( pdbReader instanceof NativePDBReader );
+	}
+
+	/**
+	 * Drop the contents of any files handed over that have not been read
+	 */
+	public void clearFileBytes(){
+		fileBytes.clear();
+	}
+
+	/**
+	 *
+	 * @return reader used for PDB files
+	 */
+	public PDBReader getPDBReader(){
+		return pdbReader;
+	}
+
+	/**
+	 *
+	 * @return reader used for mmCIF files
+	 */
+	public MMCIFReader getMMCIFReader(){
+		return cifReader;
+	}
+
+	/**
+	 *
+	 * @param structureFile structure file
+	 * @return true if the file is an mmCIF file, going by its name
+	 */
+	public static boolean isMMCIF( File structureFile ){
+		String name = structureFile.getName().toLowerCase();
+		return name.endsWith(".cif") || name.endsWith(".cif.gz");
+	}
+}
@@ -0,0 +1,97 @@
+package com.provar.app;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Table of the atom names, residue names, chain IDs and element types read from structure files.  It is shared by all
+// the structures, so each distinct name is stored once and each atom only keeps a short code for each of its names.
+// Structures only ever hold a few hundred distinct names between them, so the table stays small.
+final public class SymbolTable {
+
+	private static final ConcurrentHashMap<String, Short> codes = new ConcurrentHashMap<String, Short>();
+
+	// Name for each code, replaced with a larger copy when full so readers never see a partly filled array
+	private static volatile String[] symbols = new String[256];
+	private static int size;
+
+	/**
+	 *
+	 * @param symbol name to encode
+	 * @return code for the name, the same for every structure
+	 */
+	public static short encode( String symbol ){
+		Short code = codes.get( symbol );
+		if( code != null ){
+			return code;
+		}
+		return add( symbol );
+	}
+
+	/**
+	 *
+	 * @param code code of a name
+	 * @return the name
+	 */
+	public static String decode( short code ){
+		return symbols[code];
+	}
+
+	private static synchronized short add( String symbol ){
+
+		// Another thread may have added it while this one waited
+		Short code = codes.get( symbol );
+		if( code != null ){
+			return code;
+		}
+
+		if( size == Short.MAX_VALUE ){
+			throw new IllegalStateException("Too many distinct names in the structures read");
+		}
+		if( size == symbols.length ){
+			symbols = Arrays.copyOf( symbols, Math.min( size * 2, Short.MAX_VALUE ) );
+		}
+
+		code = (short)size;
+		symbols[size++] = symbol;
+		codes.put( symbol, code );
+		return code;
+	}
+
+	/**
+	 *
+	 * @param codes code of the name of each atom
+	 * @param count number of atoms
+	 * @return read only list of the names, decoded as they are asked for
+	 */
+	public static List<String> asList( short[] codes, int count ){
+		return new SymbolList( codes, count );
+	}
+
+	// List view of an array of codes
+	private static class SymbolList extends AbstractList<String> implements RandomAccess {
+
+		private final short[] codes;
+		private final int count;
+
+		SymbolList( short[] codes, int count ){
+			this.codes = codes;
+			this.count = count;
+		}
+
+		@Override
+		public String get( int index ){
+			if( index >= count ){
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count );
+			}
+			return decode( codes[index] );
+		}
+
+		@Override
+		public int size(){
+			return count;
+		}
+	}
+}
@@ -50,9 +50,9 @@ public class multiFilePocketProgram extends PocketProgram {
 		// Create a sting list
 		String[] fileparts = fileloc.list();
 		
-		// Iterate through the list and add only the file that have .pdb extensions 
+		// Iterate through the list and add only the file that have .pdb or .cif extensions 
 		for(String filename : fileparts ){
-			if( filename.contains(".pdb") ){
+			if( filename.contains(".pdb") || filename.contains(".cif") ){
 				files.add( dir + "\\" + multiFileDir + "\\" + filename );
 			}
 		}
@@ -0,0 +1,81 @@
+package com.provar.app;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Distance kernel using the JDK Vector API, tests as many probes at once as the CPU has double lanes (4 with AVX2,
+// 8 with AVX-512).  Needs JDK 16 or later with --add-modules jdk.incubator.vector both when compiling and running;
+// the DistanceKernelFactory falls back to the scalar kernel when this class or the module is not available.
+// The squared distances are summed in the same order as the scalar kernel so both give identical answers.
+public class VectorDistanceKernel extends DistanceKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public boolean anyWithin( double[] probeX, double[] probeY, double[] probeZ, int from, int to,
+			double x, double y, double z, double radiusSq ){
+
+		int p = from;
+		int upperBound = from + SPECIES.loopBound( to - from );
+
+		if( upperBound > from ){
+
+			DoubleVector atomX = DoubleVector.broadcast( SPECIES, x );
+			DoubleVector atomY = DoubleVector.broadcast( SPECIES, y );
+			DoubleVector atomZ = DoubleVector.broadcast( SPECIES, z );
+
+			// Test a full block of probes at a time, stopping at the first block with a probe within the radius
+			for( ; p < upperBound; p += SPECIES.length() ){
+				DoubleVector dx = DoubleVector.fromArray( SPECIES, probeX, p ).sub( atomX );
+				DoubleVector dy = DoubleVector.fromArray( SPECIES, probeY, p ).sub( atomY );
+				DoubleVector dz = DoubleVector.fromArray( SPECIES, probeZ, p ).sub( atomZ );
+
+				DoubleVector distSq = dx.mul( dx ).add( dy.mul( dy ) ).add( dz.mul( dz ) );
+
+				if( distSq.compare( VectorOperators.LT, radiusSq ).anyTrue() ){
+					return true;
+				}
+			}
+		}
+
+		// Probes left over after the last full block
+		return super.anyWithin( probeX, probeY, probeZ, p, to, x, y, z, radiusSq );
+	}
+
+	@Override
+	public double nearestDistanceSq( double[] probeX, double[] probeY, double[] probeZ, int from, int to,
+			double x, double y, double z, double nearestSq ){
+
+		int p = from;
+		int upperBound = from + SPECIES.loopBound( to - from );
+
+		if( upperBound > from ){
+
+			DoubleVector atomX = DoubleVector.broadcast( SPECIES, x );
+			DoubleVector atomY = DoubleVector.broadcast( SPECIES, y );
+			DoubleVector atomZ = DoubleVector.broadcast( SPECIES, z );
+
+			// Keep the nearest distance seen in each lane and take the smallest lane at the end
+			DoubleVector nearest = DoubleVector.broadcast( SPECIES, nearestSq );
+
+			for( ; p < upperBound; p += SPECIES.length() ){
+				DoubleVector dx = DoubleVector.fromArray( SPECIES, probeX, p ).sub( atomX );
+				DoubleVector dy = DoubleVector.fromArray( SPECIES, probeY, p ).sub( atomY );
+				DoubleVector dz = DoubleVector.fromArray( SPECIES, probeZ, p ).sub( atomZ );
+
+				nearest = nearest.min( dx.mul( dx ).add( dy.mul( dy ) ).add( dz.mul( dz ) ) );
+			}
+
+			nearestSq = nearest.reduceLanes( VectorOperators.MIN );
+		}
+
+		// Probes left over after the last full block
+		return super.nearestDistanceSq( probeX, probeY, probeZ, p, to, x, y, z, nearestSq );
+	}
+
+	@Override
+	public String getName(){
+		return "vector (" + SPECIES.length() + " lanes)";
+	}
+}